@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobstoreService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Puts together a blob fetched from Blobstore in ranges of MAX_BLOB_FETCH_SIZE bytes. The ranges
+ * are made in memory from the fixture photos, so this measures the copying, not the fetching.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlobReassemblyBenchmark {
+
+  // Size of the blob in bytes: a single fetch, a typical phone photo, the largest upload allowed.
+  @Param({"500000", "4000000", "8388608"})
+  public int blobSize;
+
+  private List<byte[]> ranges;
+
+  @Setup
+  public void setUp() throws IOException {
+    byte[] photo = Fixtures.read("537kb.png");
+    int fetchSize = BlobstoreService.MAX_BLOB_FETCH_SIZE;
+
+    ranges = new ArrayList<>();
+    for (int startIndex = 0; startIndex < blobSize; startIndex += fetchSize) {
+      byte[] range = new byte[Math.min(fetchSize, blobSize - startIndex)];
+      for (int i = 0; i < range.length; i += photo.length) {
+        System.arraycopy(photo, 0, range, i, Math.min(photo.length, range.length - i));
+      }
+      ranges.add(range);
+    }
+  }
+
+  /** Appends the ranges to a growing stream, like the first version of the upload servlet. */
+  @Benchmark
+  public byte[] byteArrayOutputStream() throws IOException {
+    ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
+    for (byte[] range : ranges) {
+      outputBytes.write(range);
+    }
+    return outputBytes.toByteArray();
+  }
+
+  /** Copies each range into its place in a buffer of the blob's size, like BlobReader. */
+  @Benchmark
+  public byte[] preallocatedBuffer() {
+    byte[] bytes = new byte[blobSize];
+    int startIndex = 0;
+    for (byte[] range : ranges) {
+      System.arraycopy(range, 0, bytes, startIndex, range.length);
+      startIndex += range.length;
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.awt.Point;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializes and deserializes blur areas as JSON, which "/get-blur-areas" and "/photos" send by
+ * default, and packed by BlurAreaCodec, which they send with format=packed and the database holds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlurAreasSerializationBenchmark {
+
+  private static final Type BLUR_AREAS_TYPE = new TypeToken<List<List<Point>>>() {}.getType();
+
+  private static final Gson gson = new Gson();
+
+  @Param({"1", "10", "100"})
+  public int areaCount;
+
+  private List<List<Point>> blurAreas;
+  private String json;
+  private byte[] packed;
+
+  @Setup
+  public void setUp() {
+    blurAreas = Fixtures.rectangles(areaCount);
+    json = gson.toJson(blurAreas, BLUR_AREAS_TYPE);
+    packed = BlurAreaCodec.encode(blurAreas);
+  }
+
+  @Benchmark
+  public String toJson() {
+    return gson.toJson(blurAreas, BLUR_AREAS_TYPE);
+  }
+
+  @Benchmark
+  public List<List<Point>> fromJson() {
+    return BlurAreaCodec.fromJson(json);
+  }
+
+  @Benchmark
+  public byte[] encodePacked() {
+    return BlurAreaCodec.encode(blurAreas);
+  }
+
+  @Benchmark
+  public List<List<Point>> decodePacked() {
+    return BlurAreaCodec.decode(packed);
+  }
+}
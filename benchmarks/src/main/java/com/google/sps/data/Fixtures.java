@@ -0,0 +1,71 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.awt.Point;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs of the benchmarks. The photos are the ones in test/test-files and end-to-end-tests/files,
+ * copied into the benchmarks jar by the build.
+ */
+final class Fixtures {
+
+  private Fixtures() {}
+
+  /** Returns the bytes of the photo named @param name. */
+  static byte[] read(String name) throws IOException {
+    try (InputStream input = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (input == null) {
+        throw new IOException("Missing fixture: " + name);
+      }
+
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int length;
+      while ((length = input.read(buffer)) != -1) {
+        output.write(buffer, 0, length);
+      }
+      return output.toByteArray();
+    }
+  }
+
+  /**
+   * Returns @param count rectangles placed randomly in a 4000x3000 photo, like the ones found by
+   * the detector. The same count always gives the same rectangles, so runs can be compared.
+   */
+  static List<List<Point>> rectangles(int count) {
+    Random random = new Random(count);
+    List<List<Point>> rectangles = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int leftX = random.nextInt(3800);
+      int topY = random.nextInt(2800);
+      int rightX = leftX + 10 + random.nextInt(190);
+      int bottomY = topY + 10 + random.nextInt(190);
+      rectangles.add(
+          Arrays.asList(
+              new Point(leftX, topY),
+              new Point(rightX, topY),
+              new Point(rightX, bottomY),
+              new Point(leftX, bottomY)));
+    }
+    return rectangles;
+  }
+}
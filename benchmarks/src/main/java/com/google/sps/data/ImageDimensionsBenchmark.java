@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finds the width and height of a photo from its header with ImageDimensions, compared with
+ * decoding the whole photo, which is what denormalizing license plates used to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageDimensionsBenchmark {
+
+  @Param({"64kb.jpg", "500kb_large_width.jpg", "537kb.png", "CarPlateAndPerson.jpg"})
+  public String photo;
+
+  private byte[] imageBytes;
+
+  @Setup
+  public void setUp() throws IOException {
+    imageBytes = Fixtures.read(photo);
+  }
+
+  @Benchmark
+  public Dimension readHeader() throws IOException {
+    return ImageDimensions.read(imageBytes);
+  }
+
+  @Benchmark
+  public Dimension decode() throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+    return new Dimension(image.getWidth(), image.getHeight());
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.awt.Point;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turns a page of BlurImage entities into the JSON of "/photos", the way PhotosServlet does once
+ * the page is loaded from the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhotoListingBenchmark {
+
+  private static final Gson gson = new Gson();
+
+  // Number of photos of the page, the default and the maximum page size of "/photos".
+  @Param({"20", "50"})
+  public int pageSize;
+
+  // True to send the rectangles packed, like the history page does.
+  @Param({"false", "true"})
+  public boolean packed;
+
+  // Keys need an App Engine environment, which is bound to the thread creating them. JMH runs
+  // the setup of a thread scoped state on the thread running the benchmark.
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private List<Entity> photoEntities;
+
+  @Setup
+  public void setUp() {
+    helper.setUp();
+
+    // Entities as saved by SavePhotoTaskServlet and read back from the database.
+    photoEntities = new ArrayList<>();
+    for (int i = 1; i <= pageSize; i++) {
+      Entity imageEntity = new Entity(KeyFactory.createKey("BlurImage", i));
+      imageEntity.setProperty("userId", "user");
+      imageEntity.setProperty("blobKey", new BlobKey("blob-" + i));
+      BlurAreaCodec.writeToEntity(imageEntity, Fixtures.rectangles(i % 10));
+      imageEntity.setProperty("dateCreated", new Date(i * 1000L));
+      BlobMetadata.setProperties(imageEntity, 500 * 1024, "image/jpeg");
+
+      List<Key> thumbnailKeys =
+          Arrays.asList(
+              KeyFactory.createKey("Thumbnail", i + "-320"),
+              KeyFactory.createKey("Thumbnail", i + "-640"));
+      imageEntity.setUnindexedProperty("thumbnailKeys", thumbnailKeys);
+      imageEntity.setUnindexedProperty("thumbnailWidths", Arrays.asList(320L, 640L));
+      photoEntities.add(imageEntity);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public String listPhotos() throws IOException {
+    StringWriter output = new StringWriter();
+    JsonWriter writer = new JsonWriter(output);
+
+    writer.beginObject();
+    writer.name("photos");
+    writer.beginArray();
+    for (Entity entity : photoEntities) {
+      long id = entity.getKey().getId();
+      BlobKey blobKey = (BlobKey) entity.getProperty("blobKey");
+      List<List<Point>> blurRectangles = BlurAreaCodec.readFromEntity(entity);
+      Date dateCreated = (Date) entity.getProperty("dateCreated");
+      long size = BlobMetadata.getSize(entity);
+
+      List<Thumbnail> thumbnails = Thumbnail.getThumbnails(entity);
+
+      BlurImage photo =
+          new BlurImage(id, "user", blobKey, blurRectangles, packed, dateCreated, size, thumbnails);
+      gson.toJson(photo, BlurImage.class, writer);
+    }
+    writer.endArray();
+    writer.endObject();
+    writer.flush();
+
+    return output.toString();
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.awt.Point;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finds the blur areas of a photo with StubBlurAreaDetector and serializes them, which is the work
+ * "/get-blur-areas" does on the instance apart from waiting for the Vision API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StubDetectionBenchmark {
+
+  private static final Type BLUR_AREAS_TYPE = new TypeToken<List<List<Point>>>() {}.getType();
+
+  private static final Gson gson = new Gson();
+
+  private static final int ALL_PARTS_MASK =
+      BlurAreaDetector.FACE_BLUR_MASK
+          | BlurAreaDetector.PLATE_BLUR_MASK
+          | BlurAreaDetector.LOGO_BLUR_MASK;
+
+  @Param({"OnePerson.png", "MultiplePeople.jpg", "500kb_large_height.jpg"})
+  public String photo;
+
+  private final BlurAreaDetector detector = new StubBlurAreaDetector(0);
+  private byte[] imageBytes;
+
+  @Setup
+  public void setUp() throws IOException {
+    imageBytes = Fixtures.read(photo);
+  }
+
+  @Benchmark
+  public String detectAsJson() throws IOException {
+    return gson.toJson(detector.getBlurAreas(imageBytes, ALL_PARTS_MASK), BLUR_AREAS_TYPE);
+  }
+
+  @Benchmark
+  public byte[] detectPacked() throws IOException {
+    return BlurAreaCodec.encode(detector.getBlurAreas(imageBytes, ALL_PARTS_MASK));
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BoundingPoly;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.FaceAnnotation;
+import com.google.cloud.vision.v1.LocalizedObjectAnnotation;
+import com.google.cloud.vision.v1.NormalizedVertex;
+import com.google.cloud.vision.v1.Vertex;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts Vision API responses to rectangles to blur, as VisionBlurAreaDetector does once the API
+ * answered. The responses are built in memory, so the API is not called.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VisionResponseBenchmark {
+
+  // Number of faces, of license plates and of logos in the response.
+  @Param({"1", "10", "50"})
+  public int annotationsPerKind;
+
+  private byte[] imageBytes;
+  private BoundingPoly poly;
+  private AnnotateImageResponse response;
+
+  @Setup
+  public void setUp() throws IOException {
+    imageBytes = Fixtures.read("CarPlateAndPerson.jpg");
+
+    List<List<Point>> rectangles = Fixtures.rectangles(annotationsPerKind);
+    poly = toBoundingPoly(rectangles.get(0));
+
+    AnnotateImageResponse.Builder builder = AnnotateImageResponse.newBuilder();
+    for (List<Point> rectangle : rectangles) {
+      builder.addFaceAnnotations(
+          FaceAnnotation.newBuilder().setFdBoundingPoly(toBoundingPoly(rectangle)));
+      builder.addLocalizedObjectAnnotations(
+          LocalizedObjectAnnotation.newBuilder()
+              .setName("License plate")
+              .setBoundingPoly(toNormalizedBoundingPoly(rectangle)));
+      builder.addLogoAnnotations(
+          EntityAnnotation.newBuilder().setBoundingPoly(toBoundingPoly(rectangle)));
+    }
+    response = builder.build();
+  }
+
+  @Benchmark
+  public ArrayList<Point> getPoints() {
+    return VisionBlurAreaDetector.getPoints(poly);
+  }
+
+  @Benchmark
+  public List<List<Point>> toBlurAreas() throws IOException {
+    return VisionBlurAreaDetector.toBlurAreas(response, imageBytes);
+  }
+
+  private static BoundingPoly toBoundingPoly(List<Point> rectangle) {
+    BoundingPoly.Builder builder = BoundingPoly.newBuilder();
+    for (Point point : rectangle) {
+      builder.addVertices(Vertex.newBuilder().setX(point.x).setY(point.y));
+    }
+    return builder.build();
+  }
+
+  // Localized objects have coordinates in [0, 1], relative to the 4000x3000 photo of Fixtures.
+  private static BoundingPoly toNormalizedBoundingPoly(List<Point> rectangle) {
+    BoundingPoly.Builder builder = BoundingPoly.newBuilder();
+    for (Point point : rectangle) {
+      builder.addNormalizedVertices(
+          NormalizedVertex.newBuilder().setX(point.x / 4000f).setY(point.y / 3000f));
+    }
+    return builder.build();
+  }
+}
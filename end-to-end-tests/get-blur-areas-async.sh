@@ -0,0 +1,91 @@
+#!/bin/bash
+
+failTests=0
+successTests=0
+
+# Makes a POST request in async mode with an image as parameter, waits for the detection job and
+# compares its blur areas with a file's content. Uses the expected outputs of get-blur-areas.sh.
+# First parameter is the host to make the request to.
+# Second parameter is image's name.
+# Third parameter is the name of the file containing the expected output.
+# Forth parameter (true or false) tells if we should detect the faces in the picture.
+# Fifth parameter (true or false) tells if we should detect the car plates in the picture.
+# Sixth parameter (true or false) tells if we should detect the logos in the picture.
+check_image() {
+  if [ $# -ne 6 ]
+  then
+    echo "The function check_image must receive 6 parameters!"
+    return
+  fi
+  echo "get-blur-areas-async: Running test for image: $2"
+
+  # Get the blobstore upload url.
+  uploadUrl=$(curl "$1blobstore-upload-url?forwardurl=/get-blur-areas")
+
+  # The data we will POST.
+  data="-F image=@end-to-end-tests/files/$2 -F mode=async"
+
+  if [ "$4" = true ]
+  then
+    data+=" -F face-blur=on"
+  fi
+
+  if [ "$5" = true ]
+  then
+    data+=" -F plate-blur=on"
+  fi
+
+  if [ "$6" = true ]
+  then
+    data+=" -F logo-blur=on"
+  fi
+
+  # POST the image. Files which are not images are rejected right away, without a job.
+  response=$(curl -X POST -H "Content-Type: multipart/form-data" $data "$uploadUrl")
+  jobId=$(echo "$response" | sed -n 's/^{"id":"\([^"]*\)".*/\1/p')
+
+  # Wait for the job, at most 3 long polls of 20 seconds.
+  if [ -n "$jobId" ]
+  then
+    for attempt in 1 2 3
+    do
+      response=$(curl "$1blur-areas-job?id=$jobId&wait=20")
+      if [[ "$response" != *'"status":"pending"'* ]]
+      then
+        break
+      fi
+    done
+    # Keep the blur areas of a finished job, so the response looks like get-blur-areas.sh's.
+    response=$(echo "$response" | sed -n 's/.*"status":"done","blurAreas":\(\[.*\]\).*}$/\1/p')
+  fi
+
+  # Compare the response we got with the expected one.
+  # If they are different, fail the test.
+  expected=$(cat end-to-end-tests/expected/get-blur-areas/$3)
+  if [ "$response" == "$expected" ]
+  then
+    ((successTests++))
+  else
+    echo "get-blur-areas-async: Test failed at image: $2"
+    echo "Returned: $response"
+    echo "Should return: $expected"
+    ((failTests++))
+  fi
+}
+
+# Parameter $1 is the host name where to make the requests to, received by the script.
+check_image $1 "MultiplePeople.jpg" "MultiplePeople.txt" true false false
+check_image $1 "OnePerson.png" "OnePerson.txt" true false false
+check_image $1 "GithubBranching.png" "GithubBranching.txt" true true true
+check_image $1 "RandomText.txt" "RandomText.txt" true true true
+check_image $1 "EmptyFile.txt" "EmptyFile.txt" true true true
+check_image $1 "OneCarPlate.jpg" "OneCarPlate.txt" false true false
+check_image $1 "GoogleLogo.jpg" "GoogleLogo.txt" false false true
+check_image $1 "CarPlateAndPerson.jpg" "CarPlateAndPerson.txt" true true false
+
+totalTests=$((failTests+successTests))
+echo "Tests ran: $totalTests; Success: $successTests; Failed: $failTests"
+if [ $failTests -gt 0 ]
+then
+  exit 1
+fi
@@ -0,0 +1,59 @@
+#!/bin/bash
+
+failTests=0
+successTests=0
+
+# Makes one POST request with several images and compares the response with the expected outputs
+# of get-blur-areas.sh, which the response must hold in upload order.
+# First parameter is the host to make the request to.
+# The next parameters are the names of the images, all detected for faces only.
+check_images() {
+  if [ $# -lt 2 ]
+  then
+    echo "The function check_images must receive at least 2 parameters!"
+    return
+  fi
+  host=$1
+  shift
+  echo "get-blur-areas-batch: Running test for images: $*"
+
+  # Get the blobstore upload url.
+  uploadUrl=$(curl "${host}blobstore-upload-url?forwardurl=/get-blur-areas-batch")
+
+  # The data we will POST, and the response we expect for it.
+  data="-F face-blur=on"
+  expected=""
+  for image in "$@"
+  do
+    data+=" -F image=@end-to-end-tests/files/$image"
+    blurAreas=$(cat end-to-end-tests/expected/get-blur-areas/${image%.*}.txt)
+    expected+=",{\"fileName\":\"$image\",\"blurAreas\":$blurAreas}"
+  done
+  expected="[${expected:1}]"
+
+  # POST the images.
+  response=$(curl -X POST -H "Content-Type: multipart/form-data" $data "$uploadUrl")
+
+  # Compare the response we got with the expected one.
+  # If they are different, fail the test.
+  if [ "$response" == "$expected" ]
+  then
+    ((successTests++))
+  else
+    echo "get-blur-areas-batch: Test failed at images: $*"
+    echo "Returned: $response"
+    echo "Should return: $expected"
+    ((failTests++))
+  fi
+}
+
+# Parameter $1 is the host name where to make the requests to, received by the script.
+check_images $1 "MultiplePeople.jpg" "OnePerson.png"
+check_images $1 "OnePerson.png" "MultiplePeople.jpg" "OnePerson.png"
+
+totalTests=$((failTests+successTests))
+echo "Tests ran: $totalTests; Success: $successTests; Failed: $failTests"
+if [ $failTests -gt 0 ]
+then
+  exit 1
+fi
@@ -0,0 +1,57 @@
+#!/bin/bash
+
+# Measures how many photos per second an instance can find the blur areas of, first with one request
+# at a time and then with several at once. With threadsafe enabled in appengine-web.xml, requests
+# waiting for the detector don't block the others, so the second run should be several times
+# faster. Deploy with photoblur.detector set to "stub" and photoblur.stub.latencyMillis set to the
+# usual Vision latency to measure the server alone. Run it from the repository root. It is not run
+# by deploy.sh, because it sends many more requests than the end-to-end tests.
+#
+# First parameter is the host to make the requests to, ending with "/".
+# Second parameter is the number of requests of each run. Defaults to 40.
+# Third parameter is the number of parallel requests of the second run. Defaults to 8.
+
+if [ $# -lt 1 ]
+then
+  echo "Usage: $0 host [requests] [parallel-requests]"
+  exit 1
+fi
+
+host=$1
+requests=${2:-40}
+parallelRequests=${3:-8}
+image="end-to-end-tests/files/OnePerson.png"
+
+# Uploads the image once and finds its faces. Prints the HTTP status code of the response.
+# First parameter is the host to make the request to.
+# Second parameter is the image to upload.
+upload_image() {
+  uploadUrl=$(curl -s "$1blobstore-upload-url?forwardurl=/get-blur-areas")
+  curl -s -o /dev/null -w "%{http_code}\n" -X POST -H "Content-Type: multipart/form-data" \
+    -F "image=@$2" -F face-blur=on "$uploadUrl"
+}
+export -f upload_image
+
+# Makes $2 requests, $1 at a time, and prints the requests per second and the failed requests.
+run() {
+  start=$(date +%s.%N)
+  statuses=$(seq "$2" | xargs -P "$1" -I {} bash -c "upload_image $host $image")
+  end=$(date +%s.%N)
+
+  failed=$(echo "$statuses" | grep -vc "^200$")
+  seconds=$(echo "$end - $start" | bc)
+  echo "$1 parallel requests: $(echo "scale=2; $2 / $seconds" | bc) requests/s, $failed failed"
+  if [ "$failed" -gt 0 ]
+  then
+    failedRuns=$((failedRuns + 1))
+  fi
+}
+
+failedRuns=0
+run 1 "$requests"
+run "$parallelRequests" "$requests"
+
+if [ $failedRuns -gt 0 ]
+then
+  exit 1
+fi
@@ -0,0 +1,69 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.loadtest;
+
+import com.google.sps.data.Histogram;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Latencies and failures of the requests to one endpoint, recorded by many threads at once. */
+final class EndpointStats {
+
+  private final String name;
+  private final Histogram latencies = new Histogram();
+  private final LongAdder failures = new LongAdder();
+
+  EndpointStats(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Records a request which took @param nanos, measured from when it should have started, and
+   * succeeded if @param succeeded is true.
+   */
+  void record(long nanos, boolean succeeded) {
+    latencies.record(nanos);
+    if (!succeeded) {
+      failures.increment();
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  long getCount() {
+    return latencies.getCount();
+  }
+
+  long getFailures() {
+    return failures.sum();
+  }
+
+  /** Returns the fraction of the requests which failed, or 0 if there were none. */
+  double getErrorRate() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) getFailures() / count;
+  }
+
+  /** Returns the requests per second over @param seconds. */
+  double getThroughput(double seconds) {
+    return getCount() / seconds;
+  }
+
+  /** Returns the latency which @param quantile of the requests didn't exceed, in milliseconds. */
+  double getLatencyMillis(double quantile) {
+    return latencies.getQuantile(quantile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
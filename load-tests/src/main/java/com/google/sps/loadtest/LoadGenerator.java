@@ -0,0 +1,289 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load generator for the upload-and-detect flow. Every operation either uploads a photo, like the
+ * upload page, with "/blobstore-upload-url" and then "/get-blur-areas", or loads "/photos", like
+ * the history page. Operations start at a fixed rate, or as soon as another ends if the rate is 0.
+ * A latency is measured from when its operation should have started, so a slow server can't hide
+ * its delays by slowing down the load. Prints the throughput, latency percentiles and error rate of
+ * every endpoint, and exits with status 1 if they are worse than the given thresholds.
+ */
+public final class LoadGenerator {
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+  private final LoadOptions options;
+  private final PhotoBlurClient client;
+  private final List<Path> photos;
+
+  // Stats of the current phase. Replaced when the warmup ends, so it isn't reported.
+  private volatile Stats stats = new Stats();
+
+  private LoadGenerator(LoadOptions options, List<Path> photos) {
+    this.options = options;
+    this.client = new PhotoBlurClient(options.getString("host"), options.getString("login"));
+    this.photos = photos;
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadOptions options;
+    try {
+      options = new LoadOptions(args);
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.out.println(LoadOptions.getUsage());
+      System.exit(2);
+      return;
+    }
+
+    List<Path> photos;
+    try (Stream<Path> files = Files.list(Paths.get(options.getString("files")))) {
+      photos =
+          files
+              .filter(file -> file.toString().matches(".*\\.(jpg|jpeg|png)"))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    if (photos.isEmpty()) {
+      System.out.println("No photos in " + options.getString("files"));
+      System.exit(2);
+    }
+
+    LoadGenerator generator = new LoadGenerator(options, photos);
+    Stats stats = generator.run();
+    boolean passed = generator.report(stats, options.getInt("duration"));
+    System.exit(passed ? 0 : 1);
+  }
+
+  /** Runs the warmup and then the measured load. Returns the stats of the measured load. */
+  private Stats run() throws InterruptedException {
+    int concurrency = options.getInt("concurrency");
+    double rate = options.getDouble("rate");
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    // Limits the operations waiting for a thread, so a server slower than the rate can't make the
+    // generator run out of memory. Operations which can't start in time are late, not dropped.
+    // Without a rate, an operation waits for the end of another before it's even scheduled.
+    Semaphore pending = new Semaphore(rate > 0 ? concurrency * 2 : concurrency);
+
+    long startNanos = System.nanoTime();
+    long warmupEndNanos = startNanos + TimeUnit.SECONDS.toNanos(options.getInt("warmup"));
+    long endNanos = warmupEndNanos + TimeUnit.SECONDS.toNanos(options.getInt("duration"));
+    boolean warmedUp = false;
+
+    for (long i = 0; ; i++) {
+      // Without a rate, an operation starts when a thread is free.
+      long scheduledNanos =
+          rate > 0 ? startNanos + (long) (i * TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+      if (rate > 0) {
+        long waitNanos = scheduledNanos - System.nanoTime();
+        if (waitNanos > 0) {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+      }
+
+      long now = System.nanoTime();
+      if (now >= endNanos) {
+        break;
+      }
+      if (!warmedUp && now >= warmupEndNanos) {
+        stats = new Stats();
+        warmedUp = true;
+      }
+
+      pending.acquire();
+      long operationScheduledNanos = rate > 0 ? scheduledNanos : System.nanoTime();
+      long operation = i;
+      executor.execute(
+          () -> {
+            try {
+              runOperation(operation, operationScheduledNanos);
+            } finally {
+              pending.release();
+            }
+          });
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    return stats;
+  }
+
+  /** Runs operation number @param operation, which should have started at @param startNanos. */
+  private void runOperation(long operation, long startNanos) {
+    Stats currentStats = stats;
+    if (ThreadLocalRandom.current().nextDouble() < options.getDouble("photos-ratio")) {
+      boolean succeeded = request(() -> client.getPhotos());
+      currentStats.photos.record(System.nanoTime() - startNanos, succeeded);
+      return;
+    }
+
+    Path photo = photos.get((int) (operation % photos.size()));
+    String[] uploadUrl = new String[1];
+    boolean succeeded =
+        request(
+            () -> {
+              PhotoBlurClient.Response response = client.getUploadUrl();
+              uploadUrl[0] = response.body.trim();
+              return response;
+            });
+    currentStats.uploadUrl.record(System.nanoTime() - startNanos, succeeded);
+    if (!succeeded) {
+      currentStats.upload.record(System.nanoTime() - startNanos, false);
+      return;
+    }
+
+    long blurAreasStartNanos = System.nanoTime();
+    succeeded = request(() -> client.uploadPhoto(uploadUrl[0], photo));
+    long endNanos = System.nanoTime();
+    currentStats.getBlurAreas.record(endNanos - blurAreasStartNanos, succeeded);
+    currentStats.upload.record(endNanos - startNanos, succeeded);
+  }
+
+  /** A request of PhotoBlurClient. */
+  private interface Request {
+    PhotoBlurClient.Response send() throws IOException;
+  }
+
+  /** Sends @param request. Returns true if it succeeded, and prints why otherwise. */
+  private static boolean request(Request request) {
+    try {
+      PhotoBlurClient.Response response = request.send();
+      if (!response.isSuccessful()) {
+        System.out.println("HTTP " + response.status + ": " + response.body.trim());
+      }
+      return response.isSuccessful();
+    } catch (IOException e) {
+      System.out.println("Request failed: " + e);
+      return false;
+    }
+  }
+
+  /**
+   * Prints @param stats of a load of @param seconds, saves them if asked and compares them with the
+   * thresholds. Returns false if a threshold was exceeded.
+   */
+  private boolean report(Stats stats, double seconds) throws IOException {
+    Properties results = new Properties();
+    System.out.printf(
+        "%-16s %8s %8s %8s %10s %10s %10s%n",
+        "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms");
+    for (EndpointStats endpoint : stats.all()) {
+      System.out.printf(
+          "%-16s %8d %7.2f%% %8.2f %10.1f %10.1f %10.1f%n",
+          endpoint.getName(),
+          endpoint.getCount(),
+          endpoint.getErrorRate() * 100,
+          endpoint.getThroughput(seconds),
+          endpoint.getLatencyMillis(QUANTILES[0]),
+          endpoint.getLatencyMillis(QUANTILES[1]),
+          endpoint.getLatencyMillis(QUANTILES[2]));
+      results.setProperty(
+          endpoint.getName() + ".throughput", Double.toString(endpoint.getThroughput(seconds)));
+      results.setProperty(
+          endpoint.getName() + ".p95Millis", Double.toString(endpoint.getLatencyMillis(0.95)));
+    }
+
+    String reportFile = options.getString("report");
+    if (!reportFile.isEmpty()) {
+      try (OutputStream output = Files.newOutputStream(Paths.get(reportFile))) {
+        results.store(output, "LoadGenerator results");
+      }
+    }
+
+    boolean passed = true;
+    double maxP95Millis = options.getDouble("max-p95-millis");
+    if (maxP95Millis > 0 && stats.upload.getLatencyMillis(0.95) > maxP95Millis) {
+      System.out.println("FAIL: upload p95 is above " + maxP95Millis + " ms.");
+      passed = false;
+    }
+
+    double maxErrorRate = options.getDouble("max-error-rate");
+    for (EndpointStats endpoint : stats.all()) {
+      if (endpoint.getErrorRate() > maxErrorRate) {
+        System.out.println("FAIL: " + endpoint.getName() + " error rate is above " + maxErrorRate);
+        passed = false;
+      }
+    }
+
+    String baselineFile = options.getString("baseline");
+    if (!baselineFile.isEmpty()) {
+      passed &= compareWithBaseline(results, baselineFile);
+    }
+    return passed;
+  }
+
+  /**
+   * Compares @param results with the ones saved in @param baselineFile. Returns false if a p95
+   * grew, or a throughput fell, by more than the maximum regression.
+   */
+  private boolean compareWithBaseline(Properties results, String baselineFile) throws IOException {
+    Properties baseline = new Properties();
+    try (InputStream input = Files.newInputStream(Paths.get(baselineFile))) {
+      baseline.load(input);
+    }
+
+    double maxRatio = 1 + options.getDouble("max-regression") / 100;
+    boolean passed = true;
+    for (String name : new TreeSet<>(results.stringPropertyNames())) {
+      String baselineValue = baseline.getProperty(name);
+      if (baselineValue == null || Double.parseDouble(baselineValue) == 0) {
+        continue;
+      }
+
+      double ratio =
+          Double.parseDouble(results.getProperty(name)) / Double.parseDouble(baselineValue);
+      // Lower latencies and higher throughputs are better.
+      boolean regressed = name.endsWith(".throughput") ? ratio * maxRatio < 1 : ratio > maxRatio;
+      System.out.printf("%-28s %+.1f%% from baseline%n", name, (ratio - 1) * 100);
+      if (regressed) {
+        System.out.println("FAIL: " + name + " regressed from baseline " + baselineValue);
+        passed = false;
+      }
+    }
+    return passed;
+  }
+
+  /** Stats of every endpoint, and of whole uploads. */
+  private static final class Stats {
+
+    final EndpointStats uploadUrl = new EndpointStats("upload-url");
+    final EndpointStats getBlurAreas = new EndpointStats("get-blur-areas");
+    final EndpointStats upload = new EndpointStats("upload");
+    final EndpointStats photos = new EndpointStats("photos");
+
+    List<EndpointStats> all() {
+      return Arrays.asList(uploadUrl, getBlurAreas, upload, photos);
+    }
+  }
+}
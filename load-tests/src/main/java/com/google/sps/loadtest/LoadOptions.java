@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Options of LoadGenerator, given on the command line as "-name value" pairs. */
+final class LoadOptions {
+
+  // Name, default value and description of every option.
+  private static final String[][] OPTIONS = {
+    {"host", "http://localhost:8080/", "App to load, ending with \"/\"."},
+    {"files", "end-to-end-tests/files", "Directory of the .jpg and .png photos to upload."},
+    {"concurrency", "8", "Maximum number of requests at the same time."},
+    {"rate", "0", "Operations started per second, or 0 to start one as soon as another ends."},
+    {"warmup", "5", "Seconds of load before the measured ones, which are not reported."},
+    {"duration", "30", "Seconds of measured load."},
+    {"photos-ratio", "0.1", "Fraction of the operations which load /photos instead of uploading."},
+    {"login", "loadtest@example.com", "Dev server user to log in as, or \"\" to stay anonymous."},
+    {"max-p95-millis", "0", "Fail if the p95 of an upload is above this, unless it's 0."},
+    {"max-error-rate", "1", "Fail if more than this fraction of the requests failed."},
+    {"report", "", "Properties file to save the results to, to use as a later baseline."},
+    {"baseline", "", "Properties file saved by an earlier run to compare the results with."},
+    {"max-regression", "10", "Fail if a p95 or throughput is this percent worse than baseline."},
+  };
+
+  private final Map<String, String> values = new LinkedHashMap<>();
+
+  /**
+   * Parses @param args. Throws IllegalArgumentException if an option is unknown or has no value.
+   */
+  LoadOptions(String[] args) {
+    for (String[] option : OPTIONS) {
+      values.put(option[0], option[1]);
+    }
+
+    for (int i = 0; i < args.length; i += 2) {
+      String name = args[i].startsWith("-") ? args[i].substring(1) : args[i];
+      if (!values.containsKey(name) || i + 1 == args.length) {
+        throw new IllegalArgumentException("Unknown option or missing value: " + args[i]);
+      }
+      values.put(name, args[i + 1]);
+    }
+  }
+
+  /** Returns the description of all the options and their defaults. */
+  static String getUsage() {
+    StringBuilder usage = new StringBuilder("Options:\n");
+    for (String[] option : OPTIONS) {
+      usage.append(
+          String.format("  -%-15s %s Default: \"%s\".%n", option[0], option[2], option[1]));
+    }
+    return usage.toString();
+  }
+
+  String getString(String name) {
+    return values.get(name);
+  }
+
+  int getInt(String name) {
+    return Integer.parseInt(values.get(name));
+  }
+
+  double getDouble(String name) {
+    return Double.parseDouble(values.get(name));
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Makes the requests of the upload page and the history page, as the browser does. HTTP errors are
+ * returned as status codes, while IOException means the request couldn't be made at all.
+ */
+final class PhotoBlurClient {
+
+  private static final int TIMEOUT_MILLIS = 60000;
+
+  private final String host;
+  private final String loginCookie;
+
+  /**
+   * Creates a client of the app at @param host. If @param loginEmail isn't empty, the requests are
+   * made as that user, which only works with the dev server.
+   */
+  PhotoBlurClient(String host, String loginEmail) {
+    this.host = host;
+    // The dev server's login page sets this cookie: email, admin flag and user id.
+    this.loginCookie =
+        loginEmail.isEmpty()
+            ? null
+            : "dev_appserver_login=" + loginEmail + ":false:" + Math.abs(loginEmail.hashCode());
+  }
+
+  /** Result of a request: its status code and body. */
+  static final class Response {
+
+    final int status;
+    final String body;
+
+    Response(int status, String body) {
+      this.status = status;
+      this.body = body;
+    }
+
+    boolean isSuccessful() {
+      return status >= 200 && status < 300;
+    }
+  }
+
+  /** Returns a Blobstore upload URL which forwards to "/get-blur-areas". */
+  Response getUploadUrl() throws IOException {
+    HttpURLConnection connection = open(host + "blobstore-upload-url?forwardurl=/get-blur-areas");
+    return read(connection);
+  }
+
+  /**
+   * Uploads @param photo to @param uploadUrl, asking for every part to be blurred. The app responds
+   * with the blur areas once they are found.
+   */
+  Response uploadPhoto(String uploadUrl, Path photo) throws IOException {
+    String boundary = UUID.randomUUID().toString();
+    HttpURLConnection connection = open(uploadUrl);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+    String contentType = photo.toString().endsWith(".png") ? "image/png" : "image/jpeg";
+    try (OutputStream output = connection.getOutputStream()) {
+      for (String part : new String[] {"face-blur", "plate-blur", "logo-blur"}) {
+        writeAscii(output, "--" + boundary + "\r\n");
+        writeAscii(output, "Content-Disposition: form-data; name=\"" + part + "\"\r\n\r\n");
+        writeAscii(output, "on\r\n");
+      }
+      writeAscii(output, "--" + boundary + "\r\n");
+      writeAscii(
+          output,
+          "Content-Disposition: form-data; name=\"image\"; filename=\""
+              + photo.getFileName()
+              + "\"\r\n");
+      writeAscii(output, "Content-Type: " + contentType + "\r\n\r\n");
+      Files.copy(photo, output);
+      writeAscii(output, "\r\n--" + boundary + "--\r\n");
+    }
+    return read(connection);
+  }
+
+  /** Loads the first page of the user's photos, as the history page does. */
+  Response getPhotos() throws IOException {
+    HttpURLConnection connection = open(host + "photos?format=packed");
+    return read(connection);
+  }
+
+  private HttpURLConnection open(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+    // "/photos" redirects anonymous users to the main page, which must count as a failure.
+    connection.setInstanceFollowRedirects(false);
+    if (loginCookie != null) {
+      connection.setRequestProperty("Cookie", loginCookie);
+    }
+    return connection;
+  }
+
+  /** Reads the whole response, so the connection can be reused by the next request. */
+  private static Response read(HttpURLConnection connection) throws IOException {
+    int status = connection.getResponseCode();
+    InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (input == null) {
+      return new Response(status, "");
+    }
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream in = input) {
+      byte[] buffer = new byte[8192];
+      int length;
+      while ((length = in.read(buffer)) != -1) {
+        body.write(buffer, 0, length);
+      }
+    }
+    return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  private static void writeAscii(OutputStream output, String text) throws IOException {
+    output.write(text.getBytes(StandardCharsets.US_ASCII));
+  }
+}
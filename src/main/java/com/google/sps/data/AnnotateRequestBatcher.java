@@ -0,0 +1,294 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Groups the annotate requests of concurrent servlet threads into a single batchAnnotateImages
+ * call. A batch is sent when it holds maxBatchSize requests or maxBatchBytes bytes, or when the
+ * oldest request in it waited windowMillis, whichever comes first. Each response of the batch is
+ * then handed back to the thread waiting for it. Batches are sent by the servlet threads
+ * themselves: the request which fills a batch sends it right away, and the request which opened a
+ * batch sends it when its window ends. This keeps no thread alive beyond a request, which the
+ * runtime doesn't allow on automatically scaled instances.
+ */
+public final class AnnotateRequestBatcher implements AutoCloseable {
+
+  // Maximum number of images the Vision API accepts in one batchAnnotateImages call.
+  private static final int MAX_REQUESTS_PER_CALL = 16;
+
+  private final ImageAnnotatorClient client;
+  private final int maxBatchSize;
+  private final long maxBatchBytes;
+  private final long windowMillis;
+  private final long timeoutMillis;
+
+  // The batch being filled. Guarded by this.
+  private List<PendingRequest> batch = new ArrayList<>();
+  private long batchBytes = 0;
+
+  /**
+   * Creates a batcher sending the requests with @param client. @param timeoutMillis is how long a
+   * servlet thread waits for its response, including the time spent waiting for the batch to fill.
+   */
+  public AnnotateRequestBatcher(
+      ImageAnnotatorClient client,
+      int maxBatchSize,
+      long maxBatchBytes,
+      long windowMillis,
+      long timeoutMillis) {
+    this.client = client;
+    // The API rejects calls with more images than that, whatever the configuration says.
+    this.maxBatchSize = Math.min(maxBatchSize, MAX_REQUESTS_PER_CALL);
+    this.maxBatchBytes = maxBatchBytes;
+    this.windowMillis = windowMillis;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Sends @param request as part of the next batch and waits for its response. If batching is
+   * disabled (windowMillis is 0 or maxBatchSize is 1), the request is sent right away on its own.
+   */
+  public AnnotateImageResponse annotate(AnnotateImageRequest request) throws IOException {
+    if (windowMillis <= 0 || maxBatchSize <= 1) {
+      List<AnnotateImageRequest> requests = new ArrayList<>();
+      requests.add(request);
+      BatchAnnotateImagesResponse response;
+      try {
+        response = client.batchAnnotateImages(requests);
+      } catch (ApiException e) {
+        throw new IOException("Cloud Vision API call failed.", e);
+      }
+      checkResponseCount(response, requests.size());
+      return response.getResponses(0);
+    }
+
+    PendingRequest pending = new PendingRequest(request);
+    List<PendingRequest> openedBatch;
+    List<List<PendingRequest>> fullBatches = new ArrayList<>();
+    synchronized (this) {
+      openedBatch = enqueue(pending, fullBatches);
+    }
+    for (List<PendingRequest> fullBatch : fullBatches) {
+      send(fullBatch);
+    }
+
+    if (openedBatch != null && awaitWindow(pending)) {
+      List<PendingRequest> toSend = takeIfCurrent(openedBatch);
+      if (toSend != null) {
+        send(toSend);
+      }
+    }
+    return waitForResponse(pending);
+  }
+
+  /**
+   * Waits at most windowMillis for the response of @param pending. Returns true if the window ended
+   * first, in which case the caller sends the batch if it wasn't sent yet.
+   */
+  private boolean awaitWindow(PendingRequest pending) throws IOException {
+    try {
+      pending.response.get(windowMillis, TimeUnit.MILLISECONDS);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the Cloud Vision API.", e);
+    } catch (ExecutionException e) {
+      // waitForResponse throws it.
+      return false;
+    } catch (TimeoutException e) {
+      return true;
+    }
+  }
+
+  /** Waits at most timeoutMillis for the response of @param pending. */
+  private AnnotateImageResponse waitForResponse(PendingRequest pending) throws IOException {
+    try {
+      return pending.response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the Cloud Vision API.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Cloud Vision API call failed.", e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("Timed out waiting for the Cloud Vision API.", e);
+    }
+  }
+
+  /**
+   * Sends all of @param requests, which belong together, in as few batches as possible and waits
+   * for their responses, returned in the same order. They don't wait for a window to end, because
+   * the caller won't add more requests. If batching is disabled, they are still sent together, in
+   * calls of at most MAX_REQUESTS_PER_CALL requests.
+   */
+  public List<AnnotateImageResponse> annotateAll(List<AnnotateImageRequest> requests)
+      throws IOException {
+    List<AnnotateImageResponse> responses = new ArrayList<>();
+    if (windowMillis <= 0 || maxBatchSize <= 1) {
+      try {
+        for (int start = 0; start < requests.size(); start += MAX_REQUESTS_PER_CALL) {
+          List<AnnotateImageRequest> call =
+              requests.subList(start, Math.min(start + MAX_REQUESTS_PER_CALL, requests.size()));
+          BatchAnnotateImagesResponse response = client.batchAnnotateImages(call);
+          checkResponseCount(response, call.size());
+          responses.addAll(response.getResponsesList());
+        }
+      } catch (ApiException e) {
+        throw new IOException("Cloud Vision API call failed.", e);
+      }
+      return responses;
+    }
+
+    List<PendingRequest> pendingRequests = new ArrayList<>();
+    for (AnnotateImageRequest request : requests) {
+      pendingRequests.add(new PendingRequest(request));
+    }
+
+    // Add them all to the batches, then send the last one right away too.
+    List<List<PendingRequest>> toSend = new ArrayList<>();
+    synchronized (this) {
+      for (PendingRequest pending : pendingRequests) {
+        enqueue(pending, toSend);
+      }
+      if (!batch.isEmpty()) {
+        toSend.add(takeBatch());
+      }
+    }
+    for (List<PendingRequest> fullBatch : toSend) {
+      send(fullBatch);
+    }
+
+    for (PendingRequest pending : pendingRequests) {
+      responses.add(waitForResponse(pending));
+    }
+    return responses;
+  }
+
+  @Override
+  public void close() {
+    client.close();
+  }
+
+  /**
+   * Adds @param pending to the current batch, and the batches it filled to @param fullBatches for
+   * the caller to send. Returns the batch @param pending opened, whose window the caller must end,
+   * or null if it joined a batch which was already open. Must hold the lock.
+   */
+  private List<PendingRequest> enqueue(
+      PendingRequest pending, List<List<PendingRequest>> fullBatches) {
+    // If the new request doesn't fit in the current batch, send the current batch first.
+    if (!batch.isEmpty() && batchBytes + pending.bytes > maxBatchBytes) {
+      fullBatches.add(takeBatch());
+    }
+
+    batch.add(pending);
+    batchBytes += pending.bytes;
+
+    if (batch.size() >= maxBatchSize || batchBytes >= maxBatchBytes) {
+      fullBatches.add(takeBatch());
+      return null;
+    }
+    // The first request of a batch starts its window.
+    return batch.size() == 1 ? batch : null;
+  }
+
+  /** Returns @param openedBatch and starts a new one, unless it was already sent when it filled. */
+  private synchronized List<PendingRequest> takeIfCurrent(List<PendingRequest> openedBatch) {
+    return batch == openedBatch ? takeBatch() : null;
+  }
+
+  /** Returns the current batch and starts a new one. Must hold the lock. */
+  private List<PendingRequest> takeBatch() {
+    List<PendingRequest> toSend = batch;
+    batch = new ArrayList<>();
+    batchBytes = 0;
+    return toSend;
+  }
+
+  /** Sends @param toSend and completes the futures of its requests. Never throws. */
+  private void send(List<PendingRequest> toSend) {
+    List<AnnotateImageRequest> requests = new ArrayList<>();
+    for (PendingRequest pending : toSend) {
+      requests.add(pending.request);
+    }
+
+    BatchAnnotateImagesResponse response;
+    try {
+      response = client.batchAnnotateImages(requests);
+    } catch (RuntimeException e) {
+      for (PendingRequest pending : toSend) {
+        pending.response.completeExceptionally(e);
+      }
+      return;
+    }
+
+    // Responses come in the same order as the requests. A request without a response fails,
+    // instead of leaving its thread waiting until the timeout.
+    int responseCount = response.getResponsesCount();
+    for (int i = 0; i < toSend.size(); i++) {
+      if (i < responseCount) {
+        toSend.get(i).response.complete(response.getResponses(i));
+      } else {
+        toSend
+            .get(i)
+            .response
+            .completeExceptionally(
+                new IllegalStateException(
+                    "Cloud Vision API returned "
+                        + responseCount
+                        + " responses for "
+                        + toSend.size()
+                        + " requests."));
+      }
+    }
+  }
+
+  /** Throws an IOException if @param response doesn't hold @param requestCount responses. */
+  private static void checkResponseCount(BatchAnnotateImagesResponse response, int requestCount)
+      throws IOException {
+    if (response.getResponsesCount() != requestCount) {
+      throw new IOException(
+          "Cloud Vision API returned "
+              + response.getResponsesCount()
+              + " responses for "
+              + requestCount
+              + " requests.");
+    }
+  }
+
+  /** A request waiting to be sent, and the future its servlet thread waits on. */
+  private static final class PendingRequest {
+    private final AnnotateImageRequest request;
+    private final long bytes;
+    private final CompletableFuture<AnnotateImageResponse> response = new CompletableFuture<>();
+
+    private PendingRequest(AnnotateImageRequest request) {
+      this.request = request;
+      this.bytes = request.getSerializedSize();
+    }
+  }
+}
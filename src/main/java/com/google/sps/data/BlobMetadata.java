@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the size and content type of a photo's blob on its BlurImage entity, so listing photos
+ * doesn't load a BlobInfo for every photo. Entities saved before these properties existed are
+ * completed with one batch get of their BlobInfo entities.
+ */
+public final class BlobMetadata {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  public static final String SIZE_PROPERTY = "size";
+  public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
+  private BlobMetadata() {}
+
+  /** Copies the size and content type of @param blobInfo to @param imageEntity. */
+  public static void setProperties(Entity imageEntity, BlobInfo blobInfo) {
+    setProperties(imageEntity, blobInfo.getSize(), blobInfo.getContentType());
+  }
+
+  /** Sets the blob's @param size and @param contentType on @param imageEntity. */
+  public static void setProperties(Entity imageEntity, long size, String contentType) {
+    imageEntity.setUnindexedProperty(SIZE_PROPERTY, size);
+    imageEntity.setUnindexedProperty(CONTENT_TYPE_PROPERTY, contentType);
+  }
+
+  /** Returns true if @param imageEntity has both the size and the content type of its blob. */
+  public static boolean hasProperties(Entity imageEntity) {
+    return imageEntity.hasProperty(SIZE_PROPERTY) && imageEntity.hasProperty(CONTENT_TYPE_PROPERTY);
+  }
+
+  /**
+   * Returns the size in bytes of the blob of @param imageEntity, after fillMissingProperties, or 0
+   * if the blob doesn't exist anymore.
+   */
+  public static long getSize(Entity imageEntity) {
+    Long size = (Long) imageEntity.getProperty(SIZE_PROPERTY);
+    return size == null ? 0 : size;
+  }
+
+  /**
+   * Returns the content type of the blob of @param imageEntity, after fillMissingProperties, or
+   * null if the blob doesn't exist anymore.
+   */
+  public static String getContentType(Entity imageEntity) {
+    return (String) imageEntity.getProperty(CONTENT_TYPE_PROPERTY);
+  }
+
+  /**
+   * Sets the size and content type on the entities of @param imageEntities which don't have them,
+   * loading all the missing BlobInfos with one datastore call. The entities are not saved. Returns
+   * the entities which were changed. Entities whose blob doesn't exist anymore are left without the
+   * properties, so hasProperties tells readers the blob is missing, instead of storing made up
+   * values which would be trusted later.
+   */
+  public static List<Entity> fillMissingProperties(List<Entity> imageEntities) {
+    List<Entity> incomplete = new ArrayList<>();
+    List<Key> blobInfoKeys = new ArrayList<>();
+    for (Entity imageEntity : imageEntities) {
+      if (!hasProperties(imageEntity)) {
+        incomplete.add(imageEntity);
+        blobInfoKeys.add(getBlobInfoKey((BlobKey) imageEntity.getProperty("blobKey")));
+      }
+    }
+
+    if (incomplete.isEmpty()) {
+      return incomplete;
+    }
+
+    // BlobInfoFactory loads one BlobInfo per call, but the BlobInfos are datastore entities, so we
+    // can get them all at once.
+    Map<Key, Entity> blobInfoEntities = datastore.get(blobInfoKeys);
+    BlobInfoFactory blobInfoFactory = new BlobInfoFactory();
+
+    List<Entity> changed = new ArrayList<>();
+    for (int i = 0; i < incomplete.size(); i++) {
+      Entity imageEntity = incomplete.get(i);
+      Entity blobInfoEntity = blobInfoEntities.get(blobInfoKeys.get(i));
+      if (blobInfoEntity != null) {
+        setProperties(imageEntity, blobInfoFactory.createBlobInfo(blobInfoEntity));
+        changed.add(imageEntity);
+      }
+    }
+
+    return changed;
+  }
+
+  /**
+   * Returns the BlobInfos of @param blobKeys, in the same order, loaded with one datastore call.
+   * The BlobInfo of a blob which doesn't exist is null.
+   */
+  public static List<BlobInfo> loadBlobInfos(List<BlobKey> blobKeys) {
+    List<Key> blobInfoKeys = new ArrayList<>();
+    for (BlobKey blobKey : blobKeys) {
+      blobInfoKeys.add(getBlobInfoKey(blobKey));
+    }
+
+    Map<Key, Entity> blobInfoEntities = datastore.get(blobInfoKeys);
+    BlobInfoFactory blobInfoFactory = new BlobInfoFactory();
+
+    List<BlobInfo> blobInfos = new ArrayList<>();
+    for (Key blobInfoKey : blobInfoKeys) {
+      Entity blobInfoEntity = blobInfoEntities.get(blobInfoKey);
+      blobInfos.add(blobInfoEntity == null ? null : blobInfoFactory.createBlobInfo(blobInfoEntity));
+    }
+    return blobInfos;
+  }
+
+  private static Key getBlobInfoKey(BlobKey blobKey) {
+    return KeyFactory.createKey(BlobInfoFactory.KIND, blobKey.getKeyString());
+  }
+}
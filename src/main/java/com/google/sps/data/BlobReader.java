@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads whole blobs from Blobstore. Blobstore returns at most MAX_BLOB_FETCH_SIZE bytes per fetch,
+ * so bigger blobs are fetched as several ranges at the same time, each range written straight into
+ * its place in a single buffer of the blob's size.
+ */
+public final class BlobReader {
+
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+
+  // Maximum number of ranges of the same blob fetched at the same time.
+  private static final int MAX_PARALLEL_FETCHES = 8;
+
+  private BlobReader() {}
+
+  /**
+   * Returns the @param size bytes of the blob at @param blobKey. Must be called from a request
+   * thread, because the ranges are fetched by threads bound to the current request. An empty array
+   * is returned if size is 0 or less, without calling Blobstore, which rejects empty ranges.
+   */
+  public static byte[] readBlob(BlobKey blobKey, long size) throws IOException {
+    if (size <= 0) {
+      return new byte[0];
+    }
+
+    int fetchSize = BlobstoreService.MAX_BLOB_FETCH_SIZE;
+
+    // Small blobs are read with a single fetch, which already returns an array of the right size.
+    if (size <= fetchSize) {
+      // End index is inclusive, so we have to subtract 1 to get size bytes.
+      return blobstoreService.fetchData(blobKey, 0, size - 1);
+    }
+
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Blob is too big to be read in memory: " + size + " bytes.");
+    }
+    byte[] bytes = new byte[(int) size];
+    int rangeCount = (int) ((size + fetchSize - 1) / fetchSize);
+
+    // Blobstore can only be called from threads bound to a request.
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(rangeCount, MAX_PARALLEL_FETCHES),
+            ThreadManager.currentRequestThreadFactory());
+    try {
+      List<Future<?>> fetches = new ArrayList<>();
+      for (int i = 0; i < rangeCount; i++) {
+        int startIndex = i * fetchSize;
+        int length = (int) Math.min(fetchSize, size - startIndex);
+        fetches.add(
+            executor.submit(
+                () -> {
+                  byte[] range =
+                      blobstoreService.fetchData(blobKey, startIndex, startIndex + length - 1);
+                  System.arraycopy(range, 0, bytes, startIndex, length);
+                }));
+      }
+
+      for (Future<?> fetch : fetches) {
+        fetch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading blob " + blobKey.getKeyString(), e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not read blob " + blobKey.getKeyString(), e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return bytes;
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.awt.Point;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts blur areas to and from a packed binary format, which is much smaller and faster to parse
+ * than their JSON. The format is a version byte, followed by the number of areas and, for each
+ * area, its number of points and its points. A point is stored as the difference between it and the
+ * previous point of the area (or (0, 0) for the first point), x first. Every number is a varint,
+ * and the differences are zigzag encoded so small negative numbers stay small.
+ */
+public final class BlurAreaCodec {
+
+  // Datastore property holding the packed areas of a BlurImage or of a cached result.
+  public static final String PACKED_PROPERTY = "packedBlurRectangles";
+
+  // Datastore property holding the areas as JSON, written before the packed format existed.
+  public static final String LEGACY_JSON_PROPERTY = "jsonBlurRectangles";
+
+  private static final byte VERSION = 1;
+
+  private static final Type BLUR_AREAS_TYPE = new TypeToken<List<List<Point>>>() {}.getType();
+  private static final Gson gson = new Gson();
+
+  private BlurAreaCodec() {}
+
+  /** Returns @param blurAreas in the packed format. */
+  public static byte[] encode(List<List<Point>> blurAreas) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(VERSION);
+    writeVarint(out, blurAreas.size());
+    for (List<Point> area : blurAreas) {
+      writeVarint(out, area.size());
+      int previousX = 0;
+      int previousY = 0;
+      for (Point point : area) {
+        writeVarint(out, zigzag(point.x - previousX));
+        writeVarint(out, zigzag(point.y - previousY));
+        previousX = point.x;
+        previousY = point.y;
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the blur areas packed in @param packed. Throws IllegalArgumentException if @param
+   * packed is not in the packed format.
+   */
+  public static List<List<Point>> decode(byte[] packed) {
+    Reader reader = new Reader(packed);
+    if (reader.readByte() != VERSION) {
+      throw new IllegalArgumentException("Unknown packed blur areas version.");
+    }
+
+    int areaCount = reader.readCount();
+    List<List<Point>> blurAreas = new ArrayList<>(Math.min(areaCount, packed.length));
+    for (int i = 0; i < areaCount; i++) {
+      int pointCount = reader.readCount();
+      List<Point> area = new ArrayList<>(Math.min(pointCount, packed.length));
+      int x = 0;
+      int y = 0;
+      for (int j = 0; j < pointCount; j++) {
+        x += unzigzag(reader.readVarint());
+        y += unzigzag(reader.readVarint());
+        area.add(new Point(x, y));
+      }
+      blurAreas.add(area);
+    }
+
+    if (reader.position != packed.length) {
+      throw new IllegalArgumentException("Unexpected bytes after the packed blur areas.");
+    }
+    return blurAreas;
+  }
+
+  /**
+   * Returns the blur areas in @param json, a JSON array of areas where an area is an array of
+   * points with "x" and "y" properties. Throws IllegalArgumentException if the JSON is invalid.
+   */
+  public static List<List<Point>> fromJson(String json) {
+    List<List<Point>> blurAreas;
+    try {
+      blurAreas = gson.fromJson(json, BLUR_AREAS_TYPE);
+    } catch (JsonParseException e) {
+      throw new IllegalArgumentException("Invalid blur areas JSON.", e);
+    }
+    return blurAreas == null ? new ArrayList<>() : blurAreas;
+  }
+
+  /**
+   * Returns the blur areas stored on @param entity, either packed or, for entities saved before the
+   * packed format existed, as JSON. Returns an empty list if the entity has no areas.
+   */
+  public static List<List<Point>> readFromEntity(Entity entity) {
+    Object packed = entity.getProperty(PACKED_PROPERTY);
+    if (packed != null) {
+      return decode(((Blob) packed).getBytes());
+    }
+
+    // Legacy JSON is a String on BlurImage entities and a Text on cached results.
+    Object json = entity.getProperty(LEGACY_JSON_PROPERTY);
+    if (json instanceof Text) {
+      return fromJson(((Text) json).getValue());
+    }
+    if (json instanceof String) {
+      return fromJson((String) json);
+    }
+    return new ArrayList<>();
+  }
+
+  /** Stores @param blurAreas packed on @param entity, replacing the legacy JSON if there is any. */
+  public static void writeToEntity(Entity entity, List<List<Point>> blurAreas) {
+    entity.setUnindexedProperty(PACKED_PROPERTY, new Blob(encode(blurAreas)));
+    entity.removeProperty(LEGACY_JSON_PROPERTY);
+  }
+
+  /** Writes @param value as an unsigned varint, 7 bits per byte, least significant bits first. */
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** Maps signed integers to unsigned ones: 0, -1, 1, -2, 2... become 0, 1, 2, 3, 4... */
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /** Reads bytes and varints from a packed array, checking that they don't go past its end. */
+  private static final class Reader {
+    private final byte[] bytes;
+    private int position = 0;
+
+    private Reader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    private byte readByte() {
+      if (position >= bytes.length) {
+        throw new IllegalArgumentException("Packed blur areas end unexpectedly.");
+      }
+      return bytes[position++];
+    }
+
+    /** Reads a varint which must be a count, so it can't be negative. */
+    private int readCount() {
+      int count = readVarint();
+      if (count < 0) {
+        throw new IllegalArgumentException("Packed blur areas contain a negative count.");
+      }
+      return count;
+    }
+
+    private int readVarint() {
+      int value = 0;
+      // An int needs at most 5 bytes of 7 bits.
+      for (int shift = 0; shift < 35; shift += 7) {
+        byte b = readByte();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Packed blur areas contain a too long varint.");
+    }
+  }
+}
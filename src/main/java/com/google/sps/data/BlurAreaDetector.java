@@ -0,0 +1,62 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Finds the parts of an image that should be blurred. Implementations are shared by all requests
+ * served by an instance, so they must be safe for concurrent use.
+ */
+public interface BlurAreaDetector extends AutoCloseable {
+
+  // Bitmask for the features we can blur.
+  int FACE_BLUR_MASK = 1 << 0;
+  int PLATE_BLUR_MASK = 1 << 1;
+  int LOGO_BLUR_MASK = 1 << 2;
+
+  /**
+   * Finds the parts to blur in the image represented by @param imageBytes. @param partsToBlurMask
+   * is a combination of the masks above and tells which kind of parts to look for. The detector may
+   * keep a reference to imageBytes while it runs, so the caller must not modify it.
+   *
+   * @return a List of bounding rectangles representing parts to blur. Rectangles are represented by
+   *     a list of points. There is no guaranteed order of the points.
+   */
+  List<List<Point>> getBlurAreas(byte[] imageBytes, int partsToBlurMask) throws IOException;
+
+  /**
+   * Finds the parts to blur in every image of @param images, like getBlurAreas does for one, and
+   * returns their areas in the same order. By default the images are detected in parallel, so
+   * detectors backed by an AnnotateRequestBatcher send them together. Detectors which can do better
+   * with the whole batch at once override this.
+   */
+  default List<List<List<Point>>> getBlurAreasBatch(List<byte[]> images, int partsToBlurMask)
+      throws IOException {
+    List<Callable<List<List<Point>>>> detections = new ArrayList<>();
+    for (byte[] imageBytes : images) {
+      detections.add(() -> getBlurAreas(imageBytes, partsToBlurMask));
+    }
+    return ParallelTasks.invokeAll(detections);
+  }
+
+  /** Releases the resources held by the detector. */
+  @Override
+  void close();
+}
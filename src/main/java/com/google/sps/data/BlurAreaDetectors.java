@@ -0,0 +1,141 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the BlurAreaDetector shared by all the requests of an instance. The detector is configured
+ * with the system properties declared in appengine-web.xml:
+ *
+ * <ul>
+ *   <li>photoblur.detector: "vision" (default) to use the Cloud Vision API or "stub" to use an
+ *       in-process detector which doesn't need network access.
+ *   <li>photoblur.vision.channelPoolSize: number of gRPC channels kept open to the API.
+ *   <li>photoblur.vision.rpcTimeoutMillis: deadline of a single annotate call.
+ *   <li>photoblur.vision.totalTimeoutMillis: deadline of an annotate call including its retries.
+ *   <li>photoblur.vision.batchWindowMillis: how long a request waits for others to share its
+ *       batchAnnotateImages call, 0 disables batching.
+ *   <li>photoblur.vision.maxBatchSize: maximum number of images in a batch.
+ *   <li>photoblur.vision.maxBatchBytes: maximum size of a batch in bytes.
+ *   <li>photoblur.stub.latencyMillis: artificial delay of the stub detector.
+ *   <li>photoblur.downscale.maxDimension: images wider or taller than this are shrunk before
+ *       detection, 0 disables shrinking.
+ *   <li>photoblur.tiling.tileSize: images wider or taller than this are cut in tiles of this size
+ *       before detection, 0 disables tiling. Tiles are then shrunk if they are still too big.
+ *   <li>photoblur.tiling.overlap: how many pixels neighbouring tiles share.
+ *   <li>photoblur.merge.enabled: true to merge overlapping areas into their bounding rectangle.
+ *   <li>photoblur.merge.minIou: intersection over union from which two areas are merged.
+ *   <li>photoblur.cache.maxEntries: number of results cached in memory, 0 disables the cache.
+ *   <li>photoblur.cache.memoryTtlSeconds: how long a result stays in the memory tier.
+ *   <li>photoblur.cache.datastoreTtlSeconds: how long a result stays in the Datastore tier.
+ * </ul>
+ */
+public final class BlurAreaDetectors {
+
+  private static final String DETECTOR_PROPERTY = "photoblur.detector";
+  private static final String STUB_DETECTOR = "stub";
+
+  private static BlurAreaDetector detector;
+  private static CachingBlurAreaDetector cache;
+
+  private BlurAreaDetectors() {}
+
+  /** Returns the shared detector, creating it on first use. */
+  public static synchronized BlurAreaDetector getDetector() throws IOException {
+    if (detector == null) {
+      detector = createDetector();
+    }
+    return detector;
+  }
+
+  /** Returns the cache in front of the shared detector, or null if caching is disabled. */
+  public static synchronized CachingBlurAreaDetector getCache() {
+    return cache;
+  }
+
+  /** Closes the shared detector. A new one is created if getDetector is called afterwards. */
+  public static synchronized void closeDetector() {
+    if (detector != null) {
+      detector.close();
+      detector = null;
+      cache = null;
+    }
+  }
+
+  private static BlurAreaDetector createDetector() throws IOException {
+    // Describes the options which change the areas found, so the cache doesn't mix the results of
+    // different configurations.
+    StringBuilder configuration = new StringBuilder();
+
+    BlurAreaDetector baseDetector;
+    if (STUB_DETECTOR.equals(System.getProperty(DETECTOR_PROPERTY))) {
+      baseDetector = new StubBlurAreaDetector(Long.getLong("photoblur.stub.latencyMillis", 0));
+      configuration.append(STUB_DETECTOR);
+    } else {
+      long totalTimeoutMillis = Long.getLong("photoblur.vision.totalTimeoutMillis", 50000);
+      long batchWindowMillis = Long.getLong("photoblur.vision.batchWindowMillis", 20);
+      ImageAnnotatorClient client =
+          VisionBlurAreaDetector.createClient(
+              Integer.getInteger("photoblur.vision.channelPoolSize", 1),
+              Long.getLong("photoblur.vision.rpcTimeoutMillis", 20000),
+              totalTimeoutMillis);
+      AnnotateRequestBatcher batcher =
+          new AnnotateRequestBatcher(
+              client,
+              Integer.getInteger("photoblur.vision.maxBatchSize", 16),
+              Long.getLong("photoblur.vision.maxBatchBytes", 8 * 1024 * 1024),
+              batchWindowMillis,
+              totalTimeoutMillis + batchWindowMillis);
+      baseDetector = new VisionBlurAreaDetector(batcher);
+      configuration.append("vision");
+    }
+
+    int maxDimension = Integer.getInteger("photoblur.downscale.maxDimension", 0);
+    if (maxDimension > 0) {
+      baseDetector = new DownscalingBlurAreaDetector(baseDetector, maxDimension);
+      configuration.append(";downscale=").append(maxDimension);
+    }
+
+    int tileSize = Integer.getInteger("photoblur.tiling.tileSize", 0);
+    if (tileSize > 0) {
+      int overlap = Integer.getInteger("photoblur.tiling.overlap", 256);
+      baseDetector = new TilingBlurAreaDetector(baseDetector, tileSize, overlap);
+      configuration.append(";tiling=").append(tileSize).append('/').append(overlap);
+    }
+
+    if (Boolean.getBoolean("photoblur.merge.enabled")) {
+      double minIou = Double.parseDouble(System.getProperty("photoblur.merge.minIou", "0.3"));
+      baseDetector = new MergingBlurAreaDetector(baseDetector, minIou);
+      configuration.append(";merge=").append(minIou);
+    }
+
+    int maxCacheEntries = Integer.getInteger("photoblur.cache.maxEntries", 1024);
+    if (maxCacheEntries <= 0) {
+      return baseDetector;
+    }
+
+    cache =
+        new CachingBlurAreaDetector(
+            baseDetector,
+            configuration.toString(),
+            maxCacheEntries,
+            TimeUnit.SECONDS.toMillis(Long.getLong("photoblur.cache.memoryTtlSeconds", 3600)),
+            TimeUnit.SECONDS.toMillis(Long.getLong("photoblur.cache.datastoreTtlSeconds", 604800)));
+    return cache;
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges overlapping blur areas into their bounding rectangle. Faces, plates and logos are found
+ * independently, so a face is often inside a logo's area or found twice, and every copy is blurred
+ * again by the browser. Overlapping areas are united rather than suppressed, because blurring less
+ * than the detector found would show what it found.
+ *
+ * <p>Candidates are looked up in a grid of square cells, so an area is only compared with the areas
+ * sharing a cell with it instead of with all of them.
+ */
+final class BlurAreaMerger {
+
+  // The grid has at most this many cells along the side of the largest area, so a huge area
+  // doesn't have to be added to thousands of cells.
+  private static final int MAX_CELLS_PER_SIDE = 16;
+
+  private final double minIou;
+  private final double minCoverage;
+
+  /**
+   * Creates a merger which unites two areas when their intersection over union is at least @param
+   * minIou, or when their intersection covers at least @param minCoverage of the smaller one.
+   */
+  BlurAreaMerger(double minIou, double minCoverage) {
+    this.minIou = minIou;
+    this.minCoverage = minCoverage;
+  }
+
+  /**
+   * Returns @param blurAreas as axis-aligned rectangles, with the overlapping ones merged. Areas
+   * without points are dropped. The result keeps the order of the first area of every group.
+   */
+  List<List<Point>> mergeAreas(List<List<Point>> blurAreas) {
+    List<Rectangle> boxes = new ArrayList<>();
+    for (List<Point> area : blurAreas) {
+      if (!area.isEmpty()) {
+        boxes.add(getBounds(area));
+      }
+    }
+
+    List<List<Point>> result = new ArrayList<>();
+    for (Rectangle box : merge(boxes)) {
+      result.add(toPoints(box));
+    }
+    return result;
+  }
+
+  /** Returns @param boxes with the overlapping ones merged into their union. */
+  List<Rectangle> merge(List<Rectangle> boxes) {
+    // A union can overlap a box none of its parts matched, so we merge until nothing changes.
+    List<Rectangle> merged = boxes;
+    int previousSize;
+    do {
+      previousSize = merged.size();
+      merged = mergeOnce(merged);
+    } while (merged.size() < previousSize);
+    return merged;
+  }
+
+  /** Returns @param boxes with the groups of boxes matching each other merged once. */
+  private List<Rectangle> mergeOnce(List<Rectangle> boxes) {
+    int cellSize = getCellSize(boxes);
+
+    // Every box starts as its own group. parents[i] leads to the first box of i's group.
+    int[] parents = new int[boxes.size()];
+    Map<Long, List<Integer>> cells = new HashMap<>();
+    for (int i = 0; i < boxes.size(); i++) {
+      parents[i] = i;
+      Rectangle box = boxes.get(i);
+      for (int cellY = Math.floorDiv(box.y, cellSize);
+          cellY <= Math.floorDiv(box.y + box.height, cellSize);
+          cellY++) {
+        for (int cellX = Math.floorDiv(box.x, cellSize);
+            cellX <= Math.floorDiv(box.x + box.width, cellSize);
+            cellX++) {
+          List<Integer> cell =
+              cells.computeIfAbsent(
+                  ((long) cellY << 32) | (cellX & 0xffffffffL), key -> new ArrayList<>());
+          for (int j : cell) {
+            int rootI = findRoot(parents, i);
+            int rootJ = findRoot(parents, j);
+            if (rootI != rootJ && matches(box, boxes.get(j))) {
+              // Keep the smaller index as the root, so groups keep the order of their first box.
+              parents[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+            }
+          }
+          cell.add(i);
+        }
+      }
+    }
+
+    Map<Integer, Rectangle> unions = new HashMap<>();
+    List<Integer> roots = new ArrayList<>();
+    for (int i = 0; i < boxes.size(); i++) {
+      int root = findRoot(parents, i);
+      Rectangle union = unions.get(root);
+      if (union == null) {
+        unions.put(root, new Rectangle(boxes.get(i)));
+        roots.add(root);
+      } else {
+        union.add(boxes.get(i));
+      }
+    }
+
+    List<Rectangle> merged = new ArrayList<>();
+    for (int root : roots) {
+      merged.add(unions.get(root));
+    }
+    return merged;
+  }
+
+  private boolean matches(Rectangle a, Rectangle b) {
+    Rectangle intersection = a.intersection(b);
+    if (intersection.isEmpty()) {
+      return false;
+    }
+
+    double intersectionArea = getArea(intersection);
+    double areaA = getArea(a);
+    double areaB = getArea(b);
+    return intersectionArea >= minIou * (areaA + areaB - intersectionArea)
+        || intersectionArea >= minCoverage * Math.min(areaA, areaB);
+  }
+
+  /**
+   * Returns the side of the grid's cells: the average side of @param boxes, so most boxes fall in a
+   * few cells, but no less than MAX_CELLS_PER_SIDE cells along the largest box.
+   */
+  private static int getCellSize(List<Rectangle> boxes) {
+    long sidesSum = 0;
+    int maxSide = 0;
+    for (Rectangle box : boxes) {
+      int side = Math.max(box.width, box.height);
+      sidesSum += side;
+      maxSide = Math.max(maxSide, side);
+    }
+    if (boxes.isEmpty()) {
+      return 1;
+    }
+    long averageSide = sidesSum / boxes.size();
+    return (int) Math.max(Math.max(averageSide, maxSide / MAX_CELLS_PER_SIDE), 1);
+  }
+
+  private static int findRoot(int[] parents, int i) {
+    while (parents[i] != i) {
+      // Point every visited box to its grandparent, so later lookups take fewer steps.
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  private static double getArea(Rectangle rect) {
+    return (double) rect.width * rect.height;
+  }
+
+  /** Returns the bounding rectangle of @param area, which must have at least one point. */
+  static Rectangle getBounds(List<Point> area) {
+    Rectangle bounds = new Rectangle(area.get(0));
+    for (Point point : area) {
+      bounds.add(point);
+    }
+    return bounds;
+  }
+
+  /** Returns the corners of @param rect, clockwise from the top left one, like Vision does. */
+  static List<Point> toPoints(Rectangle rect) {
+    int right = rect.x + rect.width;
+    int bottom = rect.y + rect.height;
+    return new ArrayList<>(
+        Arrays.asList(
+            new Point(rect.x, rect.y),
+            new Point(right, rect.y),
+            new Point(right, bottom),
+            new Point(rect.x, bottom)));
+  }
+}
@@ -14,10 +14,11 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.blobstore.BlobInfo;
-import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
+import java.awt.Point;
+import java.util.Base64;
 import java.util.Date;
+import java.util.List;
 
 /** Class containing an image and the rectangles detected by the Cloud Vision API. */
 public final class BlurImage {
@@ -25,23 +26,40 @@ public final class BlurImage {
   private final long id;
   private final String userId;
   private final String blobKeyString;
-  private final String jsonBlurRectangles;
+  // Exactly one of these is set: the rectangles as a list, or packed by BlurAreaCodec and base64
+  // encoded. Gson skips the other one, which is null.
+  private final List<List<Point>> blurRectangles;
+  private final String packedBlurRectangles;
   private final Date dateCreated;
   private final int sizeInKiB;
+  private final List<Thumbnail> thumbnails;
 
   public BlurImage(
-      long id, String userId, BlobKey blobKey, String jsonBlurRectangles, Date dateCreated) {
+      long id,
+      String userId,
+      BlobKey blobKey,
+      List<List<Point>> blurRectangles,
+      boolean packed,
+      Date dateCreated,
+      long size,
+      List<Thumbnail> thumbnails) {
     this.id = id;
     this.userId = userId;
     this.blobKeyString = blobKey.getKeyString();
-    this.jsonBlurRectangles = jsonBlurRectangles;
+    if (packed) {
+      this.blurRectangles = null;
+      this.packedBlurRectangles =
+          Base64.getEncoder().encodeToString(BlurAreaCodec.encode(blurRectangles));
+    } else {
+      this.blurRectangles = blurRectangles;
+      this.packedBlurRectangles = null;
+    }
     this.dateCreated = dateCreated;
+    this.thumbnails = thumbnails;
 
-    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-    // getSize() function returns the size in bytes. We divide by 1024 to
-    // convert it in KiB. We can cast it to int because it can't be bigger than
-    // 8192.
-    sizeInKiB = (int) (blobInfo.getSize() / 1024);
+    // size is in bytes. We divide by 1024 to convert it in KiB. We can cast it
+    // to int because it can't be bigger than 8192.
+    sizeInKiB = (int) (size / 1024);
   }
 
   public long getId() {
@@ -56,8 +74,12 @@ public final class BlurImage {
     return blobKeyString;
   }
 
-  public String getJsonBlurRectangles() {
-    return jsonBlurRectangles;
+  public List<List<Point>> getBlurRectangles() {
+    return blurRectangles;
+  }
+
+  public String getPackedBlurRectangles() {
+    return packedBlurRectangles;
   }
 
   public Date dateCreated() {
@@ -67,4 +89,8 @@ public final class BlurImage {
   public int getSizeInKiB() {
     return sizeInKiB;
   }
+
+  public List<Thumbnail> getThumbnails() {
+    return thumbnails;
+  }
 }
@@ -0,0 +1,271 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Blurs parts of an image on the server. It approximates the kernel of LinearFilterBlurer in
+ * blur.js with a separable one, the product of two one-dimensional kernels, applied as two passes
+ * (rows, then columns) over int[] rasters instead of a two-dimensional convolution. So the result
+ * is close to the client's blur but not identical. The edges of every area are smoothed with a
+ * kernel of half the size, like on the client. Areas are blurred in parallel, with ParallelTasks.
+ */
+public final class BlurRenderer {
+
+  // Same constants as LinearFilterBlurer.getDefaultBlurRadius in blur.js.
+  private static final int SAMPLE_AREA_SIDE_SIZE = 50;
+  private static final int SAMPLE_BEST_BLUR_RADIUS = 25;
+  private static final int MAX_BLUR_RADIUS = 31;
+
+  // Bigger radiuses are clamped to this one, so a request can't make rendering arbitrarily slow.
+  private static final int MAX_RENDER_BLUR_RADIUS = 101;
+
+  // The size of the smooth edges is the width (or height) of an area divided by this constant.
+  private static final int SMOOTH_EDGES_PORTION = 7;
+
+  private BlurRenderer() {}
+
+  /**
+   * Returns the blur radius which looks best for @param blurAreas, computed like on the client:
+   * proportional to the average side of the areas, but not bigger than MAX_BLUR_RADIUS.
+   */
+  public static int getDefaultBlurRadius(List<List<Point>> blurAreas) {
+    if (blurAreas.isEmpty()) {
+      return 1;
+    }
+
+    double totalSide = 0;
+    for (List<Point> area : blurAreas) {
+      Rectangle bounds = getBounds(area);
+      totalSide += bounds.width + bounds.height;
+    }
+    double averageSide = totalSide / (blurAreas.size() * 2);
+
+    return (int)
+        Math.min(
+            Math.ceil(averageSide / SAMPLE_AREA_SIDE_SIZE * SAMPLE_BEST_BLUR_RADIUS),
+            MAX_BLUR_RADIUS);
+  }
+
+  /**
+   * Returns a copy of @param image with the bounding rectangle of every area in @param blurAreas
+   * blurred with a kernel of size @param blurRadius, at most MAX_RENDER_BLUR_RADIUS. The copy is
+   * TYPE_INT_RGB if @param keepAlpha is false, so it can be encoded as JPEG, and TYPE_INT_ARGB
+   * otherwise. Must be called on a request thread, which the threads blurring the areas belong to.
+   */
+  public static BufferedImage render(
+      BufferedImage image, List<List<Point>> blurAreas, int blurRadius, boolean keepAlpha)
+      throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+
+    // Draw the image on a canvas backed by an int[] so we can work on the pixels directly.
+    BufferedImage result =
+        new BufferedImage(
+            width, height, keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = result.createGraphics();
+    graphics.drawImage(image, 0, 0, null);
+    graphics.dispose();
+    int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+    // Every area is blurred from the original pixels, so areas can be processed in parallel. Their
+    // results are written back one after another, the later ones on top.
+    int[] original = pixels.clone();
+    blurRadius = clamp(blurRadius, 1, MAX_RENDER_BLUR_RADIUS);
+    float[] kernel = getKernel(blurRadius);
+    float[] smoothKernel = getKernel(blurRadius / 2);
+    Rectangle imageBounds = new Rectangle(0, 0, width, height);
+
+    List<Callable<BlurredArea>> tasks = new ArrayList<>();
+    for (List<Point> area : blurAreas) {
+      Rectangle rect = getBounds(area).intersection(imageBounds);
+      if (rect.isEmpty()) {
+        continue;
+      }
+      tasks.add(() -> blurArea(original, width, height, rect, kernel, smoothKernel));
+    }
+
+    for (BlurredArea blurred : ParallelTasks.invokeAll(tasks)) {
+      Rectangle bounds = blurred.bounds;
+      for (int y = 0; y < bounds.height; y++) {
+        System.arraycopy(
+            blurred.pixels,
+            y * bounds.width,
+            pixels,
+            (bounds.y + y) * width + bounds.x,
+            bounds.width);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Blurs @param rect and smooths a band around it, reading from @param source. Returns the pixels
+   * of rect and of its band.
+   */
+  private static BlurredArea blurArea(
+      int[] source, int width, int height, Rectangle rect, float[] kernel, float[] smoothKernel) {
+    int top = Math.min(rect.y, rect.height / SMOOTH_EDGES_PORTION);
+    int bottom = Math.min(height - rect.height - rect.y, rect.height / SMOOTH_EDGES_PORTION);
+    int left = Math.min(rect.x, rect.width / SMOOTH_EDGES_PORTION);
+    int right = Math.min(width - rect.width - rect.x, rect.width / SMOOTH_EDGES_PORTION);
+    Rectangle bounds =
+        new Rectangle(
+            rect.x - left, rect.y - top, rect.width + left + right, rect.height + top + bottom);
+
+    // The band is blurred less than the area itself, so the area blends into the image.
+    int[] pixels = convolve(source, width, height, bounds, smoothKernel);
+    int[] blurred = convolve(source, width, height, rect, kernel);
+    for (int y = 0; y < rect.height; y++) {
+      System.arraycopy(
+          blurred, y * rect.width, pixels, (top + y) * bounds.width + left, rect.width);
+    }
+
+    return new BlurredArea(bounds, pixels);
+  }
+
+  /**
+   * Returns the pixels of @param rect convolved with @param kernel in both directions. Pixels
+   * outside of the image are replaced by the closest pixel on its border.
+   */
+  private static int[] convolve(
+      int[] source, int width, int height, Rectangle rect, float[] kernel) {
+    int radius = kernel.length / 2;
+
+    // First pass: blur the rows, including the rows above and below rect which the second pass
+    // needs. Channels are kept as floats, interleaved, so the passes don't lose precision.
+    int firstRow = Math.max(rect.y - radius, 0);
+    int lastRow = Math.min(rect.y + rect.height + radius, height) - 1;
+    int rowCount = lastRow - firstRow + 1;
+    float[] rows = new float[rowCount * rect.width * 4];
+
+    for (int y = firstRow; y <= lastRow; y++) {
+      int sourceRow = y * width;
+      int rowsIndex = (y - firstRow) * rect.width * 4;
+      for (int x = rect.x; x < rect.x + rect.width; x++) {
+        float alpha = 0;
+        float red = 0;
+        float green = 0;
+        float blue = 0;
+        for (int i = 0; i < kernel.length; i++) {
+          int sampleX = clamp(x + i - radius, 0, width - 1);
+          int pixel = source[sourceRow + sampleX];
+          float weight = kernel[i];
+          alpha += weight * (pixel >>> 24);
+          red += weight * ((pixel >> 16) & 0xff);
+          green += weight * ((pixel >> 8) & 0xff);
+          blue += weight * (pixel & 0xff);
+        }
+        rows[rowsIndex++] = alpha;
+        rows[rowsIndex++] = red;
+        rows[rowsIndex++] = green;
+        rows[rowsIndex++] = blue;
+      }
+    }
+
+    // Second pass: blur the columns of the first pass' result.
+    int[] result = new int[rect.width * rect.height];
+    for (int y = rect.y; y < rect.y + rect.height; y++) {
+      int resultIndex = (y - rect.y) * rect.width;
+      for (int x = 0; x < rect.width; x++) {
+        float alpha = 0;
+        float red = 0;
+        float green = 0;
+        float blue = 0;
+        for (int i = 0; i < kernel.length; i++) {
+          int sampleY = clamp(y + i - radius, firstRow, lastRow);
+          int rowsIndex = ((sampleY - firstRow) * rect.width + x) * 4;
+          float weight = kernel[i];
+          alpha += weight * rows[rowsIndex];
+          red += weight * rows[rowsIndex + 1];
+          green += weight * rows[rowsIndex + 2];
+          blue += weight * rows[rowsIndex + 3];
+        }
+        result[resultIndex++] =
+            (toChannel(alpha) << 24)
+                | (toChannel(red) << 16)
+                | (toChannel(green) << 8)
+                | toChannel(blue);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a one-dimensional kernel of size @param kernelSize. Like getKernel in blur.js, cell i
+   * gets the value of f(x) = 1 - (3x - x^3) / 2, where x is the distance of the cell from the
+   * center normed to [0, 1], and the cells are normed so they sum up to 1.
+   */
+  private static float[] getKernel(int kernelSize) {
+    kernelSize = Math.max(kernelSize, 1);
+    float[] kernel = new float[kernelSize];
+
+    float normCoef = 0;
+    for (int i = 0; i < kernelSize; i++) {
+      double x = Math.abs((2.0 * i - kernelSize + 1) / kernelSize);
+      kernel[i] = (float) (1 - (3 * x - x * x * x) / 2);
+      normCoef += kernel[i];
+    }
+
+    for (int i = 0; i < kernelSize; i++) {
+      kernel[i] /= normCoef;
+    }
+
+    return kernel;
+  }
+
+  /** Returns the smallest rectangle containing all the points of @param area. */
+  private static Rectangle getBounds(List<Point> area) {
+    Rectangle bounds = null;
+    for (Point point : area) {
+      if (bounds == null) {
+        bounds = new Rectangle(point);
+      } else {
+        bounds.add(point);
+      }
+    }
+    return bounds == null ? new Rectangle() : bounds;
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static int toChannel(float value) {
+    return clamp(Math.round(value), 0, 255);
+  }
+
+  /** Blurred pixels of an area and of the band around it, and where to put them in the image. */
+  private static final class BlurredArea {
+    private final Rectangle bounds;
+    private final int[] pixels;
+
+    private BlurredArea(Rectangle bounds, int[] pixels) {
+      this.bounds = bounds;
+      this.pixels = pixels;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlurAreaDetector which remembers the areas found by another detector. Results are keyed by a
+ * digest of the other detector's configuration and the image bytes, and the mask of parts to blur,
+ * so uploading the same photo again doesn't call the other detector, while a configuration change
+ * doesn't serve results found with the previous one. There are two tiers: a bounded in-memory LRU
+ * tier which is private to the instance, backed by a Datastore tier which is shared by all
+ * instances. The Datastore tier is bounded by its TTL: an expired entity is deleted when it is
+ * read, and the "/tasks/cleanup-blur-areas-cache" cron job deletes the ones which are never read
+ * again.
+ */
+public final class CachingBlurAreaDetector implements BlurAreaDetector {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  // Datastore kind of the entities holding cached results.
+  public static final String CACHE_KIND = "BlurAreasCache";
+
+  private final BlurAreaDetector detector;
+  private final String configuration;
+  private final int maxMemoryEntries;
+  private final long memoryTtlMillis;
+  private final long datastoreTtlMillis;
+
+  // Access ordered, so the first entry is always the least recently used one.
+  private final LinkedHashMap<String, CacheEntry> memoryTier;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong datastoreHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache in front of @param detector, whose options changing the areas found are
+   * described by @param configuration. The memory tier keeps at most @param maxMemoryEntries
+   * results for @param memoryTtlMillis each, while the Datastore tier keeps the results for @param
+   * datastoreTtlMillis each.
+   */
+  public CachingBlurAreaDetector(
+      BlurAreaDetector detector,
+      String configuration,
+      int maxMemoryEntries,
+      long memoryTtlMillis,
+      long datastoreTtlMillis) {
+    this.detector = detector;
+    this.configuration = configuration;
+    this.maxMemoryEntries = maxMemoryEntries;
+    this.memoryTtlMillis = memoryTtlMillis;
+    this.datastoreTtlMillis = datastoreTtlMillis;
+    this.memoryTier =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > CachingBlurAreaDetector.this.maxMemoryEntries;
+          }
+        };
+  }
+
+  @Override
+  public List<List<Point>> getBlurAreas(byte[] imageBytes, int partsToBlurMask) throws IOException {
+    String key = getCacheKey(imageBytes, partsToBlurMask);
+    long now = System.currentTimeMillis();
+
+    List<List<Point>> blurAreas = getCached(key, now);
+    if (blurAreas != null) {
+      return blurAreas;
+    }
+
+    misses.incrementAndGet();
+    blurAreas = freeze(detector.getBlurAreas(imageBytes, partsToBlurMask));
+    putInMemory(key, blurAreas, now);
+    putInDatastore(key, blurAreas, now);
+    return blurAreas;
+  }
+
+  /** Looks up every image of @param images, and passes only the missing ones to the detector. */
+  @Override
+  public List<List<List<Point>>> getBlurAreasBatch(List<byte[]> images, int partsToBlurMask)
+      throws IOException {
+    long now = System.currentTimeMillis();
+    List<List<List<Point>>> results = new ArrayList<>();
+    List<String> missingKeys = new ArrayList<>();
+    List<Integer> missingIndexes = new ArrayList<>();
+    List<byte[]> missingImages = new ArrayList<>();
+    for (int i = 0; i < images.size(); i++) {
+      String key = getCacheKey(images.get(i), partsToBlurMask);
+      List<List<Point>> blurAreas = getCached(key, now);
+      results.add(blurAreas);
+      if (blurAreas == null) {
+        missingKeys.add(key);
+        missingIndexes.add(i);
+        missingImages.add(images.get(i));
+      }
+    }
+
+    if (missingImages.isEmpty()) {
+      return results;
+    }
+
+    misses.addAndGet(missingImages.size());
+    List<List<List<Point>>> found = detector.getBlurAreasBatch(missingImages, partsToBlurMask);
+    for (int i = 0; i < missingImages.size(); i++) {
+      List<List<Point>> blurAreas = freeze(found.get(i));
+      putInMemory(missingKeys.get(i), blurAreas, now);
+      putInDatastore(missingKeys.get(i), blurAreas, now);
+      results.set(missingIndexes.get(i), blurAreas);
+    }
+    return results;
+  }
+
+  @Override
+  public void close() {
+    detector.close();
+  }
+
+  /** Returns the number of requests answered by the memory tier. */
+  public long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  /** Returns the number of requests answered by the Datastore tier. */
+  public long getDatastoreHits() {
+    return datastoreHits.get();
+  }
+
+  /** Returns the number of requests which had to call the other detector. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Returns the number of results currently held in memory. */
+  public synchronized int getMemorySize() {
+    return memoryTier.size();
+  }
+
+  /** Returns the result cached with @param key in either tier, or null if it's not cached. */
+  private List<List<Point>> getCached(String key, long now) {
+    List<List<Point>> blurAreas = getFromMemory(key, now);
+    if (blurAreas != null) {
+      memoryHits.incrementAndGet();
+      return blurAreas;
+    }
+
+    blurAreas = getFromDatastore(key, now);
+    if (blurAreas != null) {
+      datastoreHits.incrementAndGet();
+      putInMemory(key, blurAreas, now);
+    }
+    return blurAreas;
+  }
+
+  private synchronized List<List<Point>> getFromMemory(String key, long now) {
+    CacheEntry entry = memoryTier.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    if (now - entry.createdMillis > memoryTtlMillis) {
+      memoryTier.remove(key);
+      return null;
+    }
+
+    return entry.blurAreas;
+  }
+
+  private synchronized void putInMemory(String key, List<List<Point>> blurAreas, long now) {
+    memoryTier.put(key, new CacheEntry(blurAreas, now));
+  }
+
+  private List<List<Point>> getFromDatastore(String key, long now) {
+    Entity entity;
+    try {
+      entity = datastore.get(KeyFactory.createKey(CACHE_KIND, key));
+    } catch (EntityNotFoundException e) {
+      return null;
+    } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+      // The cache is only an optimization, so behave as if the result is not cached.
+      return null;
+    }
+
+    Date dateCreated = (Date) entity.getProperty("dateCreated");
+    if (now - dateCreated.getTime() > datastoreTtlMillis) {
+      try {
+        datastore.delete(entity.getKey());
+      } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+        // The cleanup cron job deletes it later.
+      }
+      return null;
+    }
+
+    List<List<Point>> blurAreas;
+    try {
+      blurAreas = BlurAreaCodec.readFromEntity(entity);
+    } catch (IllegalArgumentException e) {
+      // A corrupt result is ignored, and replaced once the areas are found again.
+      return null;
+    }
+    return freeze(blurAreas);
+  }
+
+  private void putInDatastore(String key, List<List<Point>> blurAreas, long now) {
+    Key entityKey = KeyFactory.createKey(CACHE_KIND, key);
+    Entity entity = new Entity(entityKey);
+    BlurAreaCodec.writeToEntity(entity, blurAreas);
+    entity.setProperty("dateCreated", new Date(now));
+
+    try {
+      datastore.put(entity);
+    } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+      // The cache is only an optimization, so the result is still valid if we can't store it.
+    }
+  }
+
+  /**
+   * Returns a key made of the SHA-256 digest of the configuration and the image in @param
+   * imageBytes, followed by the mask in @param partsToBlurMask, so the same image asked with
+   * different parts to blur is cached separately.
+   */
+  private String getCacheKey(byte[] imageBytes, int partsToBlurMask) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+
+    // The separator keeps the configuration from running into the image bytes.
+    digest.update(configuration.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest(imageBytes)) {
+      key.append(String.format("%02x", b));
+    }
+    return key.append('-').append(partsToBlurMask).toString();
+  }
+
+  /** Returns an unmodifiable copy of @param blurAreas, safe to share between requests. */
+  private static List<List<Point>> freeze(List<List<Point>> blurAreas) {
+    List<List<Point>> frozen = new ArrayList<>();
+    for (List<Point> area : blurAreas) {
+      frozen.add(Collections.unmodifiableList(new ArrayList<>(area)));
+    }
+    return Collections.unmodifiableList(frozen);
+  }
+
+  /** A result held in the memory tier, with the time it was stored at. */
+  private static final class CacheEntry {
+    private final List<List<Point>> blurAreas;
+    private final long createdMillis;
+
+    private CacheEntry(List<List<Point>> blurAreas, long createdMillis) {
+      this.blurAreas = blurAreas;
+      this.createdMillis = createdMillis;
+    }
+  }
+}
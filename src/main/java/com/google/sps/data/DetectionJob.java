@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.awt.Point;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * State of a detection job, which finds the blur areas of an uploaded photo after "/get-blur-areas"
+ * responded. Jobs are stored as DetectionJob entities named by a random id, so knowing the id is
+ * what allows reading the job of a user who is not logged in. This class is what "/blur-areas-job"
+ * sends back. The "/tasks/cleanup-detection-jobs" cron job deletes old jobs.
+ */
+public final class DetectionJob {
+
+  public static final String KIND = "DetectionJob";
+
+  public static final String PENDING = "pending";
+  public static final String DONE = "done";
+  public static final String FAILED = "failed";
+
+  private final String id;
+  private final String status;
+  // Set when the job is done.
+  private final List<List<Point>> blurAreas;
+  // Set when the job is done and the photo was saved in the user's history.
+  private final Long photoId;
+  // Set when the job failed.
+  private final String error;
+
+  private DetectionJob(
+      String id, String status, List<List<Point>> blurAreas, Long photoId, String error) {
+    this.id = id;
+    this.status = status;
+    this.blurAreas = blurAreas;
+    this.photoId = photoId;
+    this.error = error;
+  }
+
+  /**
+   * Returns a new pending job entity, not saved yet, which finds the parts of @param
+   * partsToBlurMask in the blob described by @param blobInfo for the user with id @param userId,
+   * null if the user is not logged in.
+   */
+  public static Entity createEntity(String userId, BlobInfo blobInfo, int partsToBlurMask) {
+    Entity jobEntity = new Entity(getKey(UUID.randomUUID().toString()));
+    jobEntity.setUnindexedProperty("userId", userId);
+    jobEntity.setUnindexedProperty("blobKey", blobInfo.getBlobKey());
+    BlobMetadata.setProperties(jobEntity, blobInfo);
+    jobEntity.setUnindexedProperty("partsToBlurMask", (long) partsToBlurMask);
+    jobEntity.setUnindexedProperty("status", PENDING);
+    jobEntity.setProperty("dateCreated", new Date());
+    return jobEntity;
+  }
+
+  /** Returns the key of the job with id @param jobId. */
+  public static Key getKey(String jobId) {
+    return KeyFactory.createKey(KIND, jobId);
+  }
+
+  /** Returns the id of the user who started the job of @param jobEntity, or null. */
+  public static String getUserId(Entity jobEntity) {
+    return (String) jobEntity.getProperty("userId");
+  }
+
+  /** Returns the key of the blob holding the photo of @param jobEntity. */
+  public static BlobKey getBlobKey(Entity jobEntity) {
+    return (BlobKey) jobEntity.getProperty("blobKey");
+  }
+
+  /**
+   * Returns the parts of the photo which @param jobEntity looks for, as a BlurAreaDetector mask.
+   */
+  public static int getPartsToBlurMask(Entity jobEntity) {
+    return (int) (long) jobEntity.getProperty("partsToBlurMask");
+  }
+
+  /** Returns the time @param jobEntity was created at. */
+  public static Date getDateCreated(Entity jobEntity) {
+    return (Date) jobEntity.getProperty("dateCreated");
+  }
+
+  /** Returns true if @param jobEntity is neither done nor failed. */
+  public static boolean isPending(Entity jobEntity) {
+    return PENDING.equals(jobEntity.getProperty("status"));
+  }
+
+  /**
+   * Marks @param jobEntity as done with the areas in @param blurAreas. @param photoId is the id of
+   * the saved photo, or null if the photo is not kept.
+   */
+  public static void setDone(Entity jobEntity, List<List<Point>> blurAreas, Long photoId) {
+    jobEntity.setUnindexedProperty("status", DONE);
+    BlurAreaCodec.writeToEntity(jobEntity, blurAreas);
+    jobEntity.setUnindexedProperty("photoId", photoId);
+  }
+
+  /** Marks @param jobEntity as failed because of the problem described by @param error. */
+  public static void setFailed(Entity jobEntity, String error) {
+    jobEntity.setUnindexedProperty("status", FAILED);
+    jobEntity.setUnindexedProperty("error", error);
+  }
+
+  /** Returns the state of the job stored in @param jobEntity. */
+  public static DetectionJob fromEntity(Entity jobEntity) {
+    String status = (String) jobEntity.getProperty("status");
+    return new DetectionJob(
+        jobEntity.getKey().getName(),
+        status,
+        DONE.equals(status) ? BlurAreaCodec.readFromEntity(jobEntity) : null,
+        (Long) jobEntity.getProperty("photoId"),
+        (String) jobEntity.getProperty("error"));
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public List<List<Point>> getBlurAreas() {
+    return blurAreas;
+  }
+
+  public Long getPhotoId() {
+    return photoId;
+  }
+
+  public String getError() {
+    return error;
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies in nanoseconds or sizes in bytes.
+ * Values below 16 have a bucket each. Bigger values share buckets which split every power of two in
+ * 8, so a percentile is within 12.5% of the recorded value while all values of a long fit in less
+ * than 500 buckets. Recording is an atomic increment, so threads never wait for each other.
+ */
+public final class Histogram {
+
+  // Values below this have a bucket each.
+  private static final int EXACT_BUCKETS = 16;
+
+  // Number of bits of a value, after its highest one, which choose its bucket in its power of two.
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // The highest one bit of the values past the exact buckets is at index 4 or more.
+  private static final int FIRST_SHARED_EXPONENT = 4;
+
+  private static final int BUCKET_COUNT =
+      EXACT_BUCKETS + (Long.SIZE - 1 - FIRST_SHARED_EXPONENT) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  /** Records @param value. Negative values are recorded as 0. */
+  public void record(long value) {
+    value = Math.max(value, 0);
+    buckets.incrementAndGet(getBucket(value));
+    count.increment();
+    sum.add(value);
+  }
+
+  /** Returns the number of recorded values. */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** Returns the sum of the recorded values. */
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns the value which @param quantile, between 0 and 1, of the recorded values don't exceed,
+   * or 0 if nothing was recorded. Values recorded while this runs may or may not be counted.
+   */
+  public long getQuantile(double quantile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    // The rank of the value we look for, starting from 1.
+    long rank = Math.max((long) Math.ceil(quantile * total), 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return getBucketMiddle(i);
+      }
+    }
+    return getBucketMiddle(BUCKET_COUNT - 1);
+  }
+
+  private static int getBucket(long value) {
+    if (value < EXACT_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return EXACT_BUCKETS + (exponent - FIRST_SHARED_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  /** Returns the value in the middle of the values of bucket @param index. */
+  private static long getBucketMiddle(int index) {
+    if (index < EXACT_BUCKETS) {
+      return index;
+    }
+
+    int exponent = (index - EXACT_BUCKETS) / SUB_BUCKETS + FIRST_SHARED_EXPONENT;
+    int subBucket = (index - EXACT_BUCKETS) % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    long lowest = (SUB_BUCKETS + subBucket) * width;
+    return lowest + width / 2;
+  }
+}
@@ -14,35 +14,70 @@
 
 package com.google.sps.data;
 
-import com.google.appengine.api.blobstore.BlobInfo;
-import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /** Class containing a logged user. */
 public final class LoggedUser extends User {
 
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+
   // How much space in bytes can a user use to store photos.
   public static final long USER_STORAGE_LIMIT = 50 * 1024 * 1024;
 
+  // The datastore allows at most 25 entity groups in a cross-group transaction, and every photo is
+  // its own entity group.
+  private static final int MAX_GROUPS_PER_TRANSACTION = 25;
+
+  // Number of times a transaction deleting photos is tried before giving up.
+  private static final int MAX_DELETE_ATTEMPTS = 3;
+
   private final String id;
   private Long usedSpace;
   private final String logoutURL;
 
+  // Counts the space used by the user.
+  private final UsedSpaceCounter usedSpaceCounter;
+
+  // Times of the database calls of a user.
+  private static final Histogram loadLatency =
+      Metrics.latency("user_load_seconds", "Time to load a user's entity and used space.");
+  private static final Histogram photosQueryLatency =
+      Metrics.latency("user_photos_query_seconds", "Time to query a page of a user's photos.");
+  private static final Histogram blobDeleteLatency =
+      Metrics.latency("user_blob_delete_seconds", "Time to delete the blobs of a user's photos.");
+  private static final Histogram entityDeleteLatency =
+      Metrics.latency(
+          "user_entity_delete_seconds", "Time to delete the entities of a user's photos.");
+  private static final Histogram reserveSpaceLatency =
+      Metrics.latency("user_reserve_space_seconds", "Time to reserve a user's space for a photo.");
+  private static final Histogram releaseSpaceLatency =
+      Metrics.latency("user_release_space_seconds", "Time to give back a user's space.");
+
   public LoggedUser(String id, String logoutURL) {
     // Init User super class with loggedIn = true.
     super(true);
@@ -50,25 +85,61 @@ public final class LoggedUser extends User {
     this.id = id;
     this.logoutURL = logoutURL;
 
-    // Get user's usedSpace from the database.
-    this.usedSpace = (long) getEntity().getProperty("usedSpace");
+    // The user's entity holds the space used before it was counted by usedSpaceCounter.
+    long startNanos = System.nanoTime();
+    long legacyUsedSpace = (long) UserEntities.get(id).getProperty("usedSpace");
+    this.usedSpaceCounter = new UsedSpaceCounter(id, legacyUsedSpace);
+    this.usedSpace = usedSpaceCounter.getCached();
+    Metrics.recordSince(loadLatency, startNanos);
   }
 
-  /** Returns the datastore BlurImage entities corresponding to the user ordered by dateCreated. */
-  public Iterable<Entity> getBlurImageEntities(int maxResults) {
-    if (maxResults < 0) {
-      maxResults = 0;
+  /**
+   * Returns a page of at most @param pageSize datastore BlurImage entities corresponding to the
+   * user ordered by dateCreated. @param pageToken is null for the first page, or the web-safe
+   * string of the cursor returned with the previous page. Throws IllegalArgumentException if the
+   * token is invalid.
+   */
+  public QueryResultList<Entity> getBlurImageEntities(int pageSize, String pageToken) {
+    if (pageSize < 0) {
+      pageSize = 0;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(pageSize);
+    if (pageToken != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(pageToken));
     }
 
     // Load user's photos from datastore.
     Query query = new Query("BlurImage");
     query.setFilter(new Query.FilterPredicate("userId", Query.FilterOperator.EQUAL, id));
     query.addSort("dateCreated", SortDirection.DESCENDING);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     PreparedQuery results = datastore.prepare(query);
 
-    // Convert the results to an Iterable of maximum maxResults elements.
-    return results.asIterable(FetchOptions.Builder.withLimit(maxResults));
+    // The returned list also holds the cursor pointing after its last entity.
+    long startNanos = System.nanoTime();
+    QueryResultList<Entity> photoEntities = results.asQueryResultList(fetchOptions);
+    Metrics.recordSince(photosQueryLatency, startNanos);
+    return photoEntities;
+  }
+
+  /**
+   * Returns the datastore BlurImage entity with id @param photoId if it belongs to the user, or
+   * null otherwise.
+   */
+  public Entity getBlurImageEntity(long photoId) {
+    Entity photoEntity;
+    try {
+      photoEntity = datastore.get(KeyFactory.createKey("BlurImage", photoId));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+
+    // We check the photo's userId to match the current user.
+    if (!id.equals(photoEntity.getProperty("userId"))) {
+      return null;
+    }
+
+    return photoEntity;
   }
 
   /**
@@ -76,42 +147,108 @@ public final class LoggedUser extends User {
    * if a photo was deleted and false otherwise.
    */
   public boolean deletePhoto(long photoId) {
-    // Get the photo entity from database.
-    Query query = new Query("BlurImage");
-    Filter photoIdFilter =
-        new FilterPredicate(
-            Entity.KEY_RESERVED_PROPERTY,
-            FilterOperator.EQUAL,
-            KeyFactory.createKey("BlurImage", photoId));
-    // We check the photo's userId to match the current user.
-    Filter userIdFilter = new FilterPredicate("userId", FilterOperator.EQUAL, id);
-    // Combine the two filters into one.
-    CompositeFilter combinedFilter = CompositeFilterOperator.and(photoIdFilter, userIdFilter);
-    // Apply the filter to the query.
-    query.setFilter(combinedFilter);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-    Entity photoEntity = results.asSingleEntity();
+    return !deletePhotos(Collections.singletonList(photoId)).isEmpty();
+  }
 
-    // If the entity does not exist then the user has no photo with id photoId.
-    if (photoEntity == null) {
-      return false;
+  /**
+   * Deletes the photos with ids in @param photoIds which belong to the current user, with their
+   * blobs and thumbnails. Returns the ids of the photos this call deleted, which excludes photos
+   * deleted at the same time by another call. The photo entities are read again and deleted in
+   * cross-group transactions of at most MAX_GROUPS_PER_TRANSACTION photos, of four calls each
+   * (begin, get, delete and commit), so 100 photos take 16 calls. Their thumbnails and blobs are
+   * then deleted with one batch call each.
+   */
+  public List<Long> deletePhotos(List<Long> photoIds) {
+    // A set, so an id given twice is deleted once.
+    Set<Key> photoKeySet = new LinkedHashSet<>();
+    for (long photoId : photoIds) {
+      photoKeySet.add(KeyFactory.createKey("BlurImage", photoId));
+    }
+    List<Key> photoKeys = new ArrayList<>(photoKeySet);
+
+    long entityDeleteStartNanos = System.nanoTime();
+    List<Entity> deletedEntities = new ArrayList<>();
+    for (int start = 0; start < photoKeys.size(); start += MAX_GROUPS_PER_TRANSACTION) {
+      deletedEntities.addAll(
+          deleteOwnedEntities(
+              photoKeys.subList(
+                  start, Math.min(start + MAX_GROUPS_PER_TRANSACTION, photoKeys.size()))));
     }
 
-    // Decrease user's usedSpace.
-    BlobKey blobKey = (BlobKey) photoEntity.getProperty("blobKey");
-    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-    setUsedSpace(usedSpace - blobInfo.getSize());
+    if (deletedEntities.isEmpty()) {
+      Metrics.recordSince(entityDeleteLatency, entityDeleteStartNanos);
+      return new ArrayList<>();
+    }
+
+    BlobMetadata.fillMissingProperties(deletedEntities);
+
+    List<Long> deletedIds = new ArrayList<>();
+    List<BlobKey> blobKeys = new ArrayList<>();
+    List<Key> thumbnailKeys = new ArrayList<>();
+    long freedSpace = 0;
+    for (Entity photoEntity : deletedEntities) {
+      deletedIds.add(photoEntity.getKey().getId());
+      blobKeys.add((BlobKey) photoEntity.getProperty("blobKey"));
+      freedSpace += BlobMetadata.getSize(photoEntity);
+      for (Thumbnail thumbnail : Thumbnail.getThumbnails(photoEntity)) {
+        thumbnailKeys.add(KeyFactory.stringToKey(thumbnail.getKey()));
+      }
+    }
+
+    // Delete the thumbnails from database. Deleting them twice does nothing.
+    datastore.delete(thumbnailKeys);
+    Metrics.recordSince(entityDeleteLatency, entityDeleteStartNanos);
+
+    // Delete images from blobstore.
+    long blobDeleteStartNanos = System.nanoTime();
+    blobstoreService.delete(blobKeys.toArray(new BlobKey[0]));
+    Metrics.recordSince(blobDeleteLatency, blobDeleteStartNanos);
+
+    // Decrease user's usedSpace once for all the photos.
+    releaseSpace(freedSpace);
+
+    return deletedIds;
+  }
 
-    // Delete image from blobstore.
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    blobstoreService.delete(blobKey);
+  /**
+   * Deletes the entities with keys in @param photoKeys which still exist and belong to the current
+   * user, in one cross-group transaction which reads them first. Returns the deleted entities. Only
+   * the call whose transaction removed an entity frees its space, so overlapping deletes of the
+   * same photos, like a retried request or two tabs, can't give its space back twice.
+   */
+  private List<Entity> deleteOwnedEntities(List<Key> photoKeys) {
+    for (int attempt = 1; ; attempt++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        // Missing photos are not in the result.
+        Map<Key, Entity> photoEntities = datastore.get(transaction, photoKeys);
 
-    // Delete image from database.
-    datastore.delete(photoEntity.getKey());
+        // We check the photos' userId to match the current user.
+        List<Entity> ownedEntities = new ArrayList<>();
+        List<Key> ownedKeys = new ArrayList<>();
+        for (Key photoKey : photoKeys) {
+          Entity photoEntity = photoEntities.get(photoKey);
+          if (photoEntity != null && id.equals(photoEntity.getProperty("userId"))) {
+            ownedEntities.add(photoEntity);
+            ownedKeys.add(photoKey);
+          }
+        }
 
-    // The image was deleted successfully.
-    return true;
+        datastore.delete(transaction, ownedKeys);
+        transaction.commit();
+        return ownedEntities;
+      } catch (ConcurrentModificationException e) {
+        // Another call changed some of the photos. Reading them again skips the ones it deleted.
+        // After the last attempt none of them was deleted, so they are reported as not deleted.
+        if (attempt == MAX_DELETE_ATTEMPTS) {
+          return new ArrayList<>();
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
   }
 
   public String getId() {
@@ -126,35 +263,34 @@ public final class LoggedUser extends User {
     return logoutURL;
   }
 
-  public void setUsedSpace(Long usedSpace) {
-    if (usedSpace < 0) {
-      usedSpace = 0l;
-    }
-    this.usedSpace = usedSpace;
-
-    // Update user's usedSpace in the database.
-    Entity entity = getEntity();
-    entity.setProperty("usedSpace", usedSpace);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.put(entity);
-  }
+  /**
+   * Reserves @param bytes of the user's storage for a photo being uploaded. Returns false, without
+   * reserving anything, if the user would exceed USER_STORAGE_LIMIT. The space is reserved before
+   * checking the limit, so parallel uploads see each other's reservations and can't exceed the
+   * limit together. Reserved space which is not used must be given back with releaseSpace.
+   */
+  public boolean reserveSpace(long bytes) {
+    long startNanos = System.nanoTime();
+    try {
+      usedSpaceCounter.add(bytes);
+      long totalSpace = usedSpaceCounter.getFresh();
+      if (totalSpace > USER_STORAGE_LIMIT) {
+        usedSpaceCounter.add(-bytes);
+        return false;
+      }
 
-  private Entity getEntity() {
-    // Get the user's entity from database.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query("User");
-    query.setFilter(new Query.FilterPredicate("id", Query.FilterOperator.EQUAL, id));
-    PreparedQuery results = datastore.prepare(query);
-    Entity userEntity = results.asSingleEntity();
-
-    // If the user is not in database yet, add them.
-    if (userEntity == null) {
-      userEntity = new Entity("User");
-      userEntity.setProperty("id", id);
-      userEntity.setProperty("usedSpace", 0l);
-      datastore.put(userEntity);
+      usedSpace = totalSpace;
+      return true;
+    } finally {
+      Metrics.recordSince(reserveSpaceLatency, startNanos);
     }
+  }
 
-    return userEntity;
+  /** Gives back @param bytes of the user's storage, reserved for a photo which was deleted. */
+  public void releaseSpace(long bytes) {
+    long startNanos = System.nanoTime();
+    usedSpaceCounter.add(-bytes);
+    Metrics.recordSince(releaseSpaceLatency, startNanos);
+    usedSpace = Math.max(usedSpace - bytes, 0);
   }
 }
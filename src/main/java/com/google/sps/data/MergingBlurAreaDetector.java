@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BlurAreaDetector which merges the overlapping areas found by another detector with
+ * BlurAreaMerger, so the response carries fewer, larger rectangles and the browser blurs every
+ * pixel once.
+ */
+public final class MergingBlurAreaDetector implements BlurAreaDetector {
+
+  // An area with at least this fraction inside another one is always merged into it, whatever
+  // their intersection over union, because the bigger area blurs it anyway.
+  private static final double CONTAINED_COVERAGE = 0.9;
+
+  private static final Histogram mergeLatency =
+      Metrics.latency("detector_merge_seconds", "Time to merge the overlapping blur areas.");
+  private static final LongAdder mergedAreas =
+      Metrics.counter(
+          "detector_merged_areas_total", "Blur areas removed by merging them into another one.");
+
+  private final BlurAreaDetector detector;
+  private final BlurAreaMerger merger;
+
+  /**
+   * Creates a detector which merges the areas found by @param detector when their intersection over
+   * union is at least @param minIou.
+   */
+  public MergingBlurAreaDetector(BlurAreaDetector detector, double minIou) {
+    this.detector = detector;
+    this.merger = new BlurAreaMerger(minIou, CONTAINED_COVERAGE);
+  }
+
+  @Override
+  public List<List<Point>> getBlurAreas(byte[] imageBytes, int partsToBlurMask) throws IOException {
+    return merge(detector.getBlurAreas(imageBytes, partsToBlurMask));
+  }
+
+  @Override
+  public List<List<List<Point>>> getBlurAreasBatch(List<byte[]> images, int partsToBlurMask)
+      throws IOException {
+    List<List<List<Point>>> results = new ArrayList<>();
+    for (List<List<Point>> blurAreas : detector.getBlurAreasBatch(images, partsToBlurMask)) {
+      results.add(merge(blurAreas));
+    }
+    return results;
+  }
+
+  @Override
+  public void close() {
+    detector.close();
+  }
+
+  private List<List<Point>> merge(List<List<Point>> blurAreas) {
+    long startNanos = System.nanoTime();
+    List<List<Point>> merged = merger.mergeAreas(blurAreas);
+    Metrics.recordSince(mergeLatency, startNanos);
+    mergedAreas.add(blurAreas.size() - merged.size());
+    return merged;
+  }
+}
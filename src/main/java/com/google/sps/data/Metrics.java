@@ -0,0 +1,130 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of this instance, served by "/metrics" in the Prometheus text format.
+ * Classes get their metrics once, into static fields, and recording is then lock-free. The values
+ * count from the instance's start, and a scraper computes rates from them.
+ */
+public final class Metrics {
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+  private static final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+  private Metrics() {}
+
+  /** Returns the counter named @param name, described by @param help. */
+  public static LongAdder counter(String name, String help) {
+    return ((CounterMetric) register(name, new CounterMetric(help))).counter;
+  }
+
+  /**
+   * Returns the histogram named @param name, described by @param help, which records durations in
+   * nanoseconds and shows them in seconds. The name should end with "_seconds".
+   */
+  public static Histogram latency(String name, String help) {
+    return ((HistogramMetric) register(name, new HistogramMetric(help, 1e-9))).histogram;
+  }
+
+  /**
+   * Returns the histogram named @param name, described by @param help, which records and shows
+   * sizes in bytes. The name should end with "_bytes".
+   */
+  public static Histogram size(String name, String help) {
+    return ((HistogramMetric) register(name, new HistogramMetric(help, 1))).histogram;
+  }
+
+  /** Records in @param latency the time since @param startNanos, a System.nanoTime() value. */
+  public static void recordSince(Histogram latency, long startNanos) {
+    latency.record(System.nanoTime() - startNanos);
+  }
+
+  /** Writes all the metrics to @param writer in the Prometheus text format. */
+  public static void write(PrintWriter writer) {
+    for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+      entry.getValue().write(entry.getKey(), writer);
+    }
+  }
+
+  private static Metric register(String name, Metric metric) {
+    Metric registered = metrics.putIfAbsent(name, metric);
+    if (registered == null) {
+      return metric;
+    }
+    if (registered.getClass() != metric.getClass()) {
+      throw new IllegalArgumentException("Metric " + name + " is already of another type.");
+    }
+    return registered;
+  }
+
+  private abstract static class Metric {
+
+    final String help;
+
+    Metric(String help) {
+      this.help = help;
+    }
+
+    abstract void write(String name, PrintWriter writer);
+  }
+
+  private static final class CounterMetric extends Metric {
+
+    final LongAdder counter = new LongAdder();
+
+    CounterMetric(String help) {
+      super(help);
+    }
+
+    @Override
+    void write(String name, PrintWriter writer) {
+      writer.println("# HELP " + name + " " + help);
+      writer.println("# TYPE " + name + " counter");
+      writer.println(name + " " + counter.sum());
+    }
+  }
+
+  /** A histogram, shown as a Prometheus summary with the p50, p95 and p99 quantiles. */
+  private static final class HistogramMetric extends Metric {
+
+    final Histogram histogram = new Histogram();
+
+    // Multiplies the recorded values to get the shown ones.
+    final double scale;
+
+    HistogramMetric(String help, double scale) {
+      super(help);
+      this.scale = scale;
+    }
+
+    @Override
+    void write(String name, PrintWriter writer) {
+      writer.println("# HELP " + name + " " + help);
+      writer.println("# TYPE " + name + " summary");
+      for (double quantile : QUANTILES) {
+        writer.println(
+            name + "{quantile=\"" + quantile + "\"} " + histogram.getQuantile(quantile) * scale);
+      }
+      writer.println(name + "_sum " + histogram.getSum() * scale);
+      writer.println(name + "_count " + histogram.getCount());
+    }
+  }
+}
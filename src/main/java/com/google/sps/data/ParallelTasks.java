@@ -0,0 +1,91 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.ThreadManager;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent parts of a request, like reading several blobs or detecting several images, at
+ * the same time. The tasks run on threads bound to the current request, because they call App
+ * Engine APIs, which plain threads can't.
+ */
+public final class ParallelTasks {
+
+  // Maximum number of tasks of the same request running at the same time.
+  private static final int MAX_PARALLEL_TASKS = 8;
+
+  private ParallelTasks() {}
+
+  /**
+   * Runs @param tasks in parallel and returns their results, in the same order. If a task fails,
+   * its exception is thrown once all the tasks started, wrapped in an IOException unless it is one
+   * already or a RuntimeException.
+   */
+  public static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+    List<T> results = new ArrayList<>();
+    if (tasks.isEmpty()) {
+      return results;
+    }
+    if (tasks.size() == 1) {
+      // Not worth a thread.
+      try {
+        results.add(tasks.get(0).call());
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+      return results;
+    }
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(tasks.size(), MAX_PARALLEL_TASKS),
+            ThreadManager.currentRequestThreadFactory());
+    try {
+      List<Future<T>> futures = new ArrayList<>();
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for parallel tasks.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
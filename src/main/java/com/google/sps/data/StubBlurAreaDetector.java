@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-process BlurAreaDetector which doesn't use the network. It returns one rectangle for every
+ * kind of part requested, placed in a different ninth of the image, after an optional artificial
+ * delay. It lets the servlets be load tested without calling the Cloud Vision API.
+ */
+public final class StubBlurAreaDetector implements BlurAreaDetector {
+
+  private final long latencyMillis;
+
+  /** Creates a detector which waits @param latencyMillis before answering, to mimic the API. */
+  public StubBlurAreaDetector(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  @Override
+  public List<List<Point>> getBlurAreas(byte[] imageBytes, int partsToBlurMask) throws IOException {
+    Dimension dimensions = ImageDimensions.read(imageBytes);
+    int width = dimensions.width;
+    int height = dimensions.height;
+
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while detecting blur areas.", e);
+      }
+    }
+
+    List<List<Point>> rectanglesToBlur = new ArrayList<>();
+    int[] masks = {FACE_BLUR_MASK, PLATE_BLUR_MASK, LOGO_BLUR_MASK};
+    for (int i = 0; i < masks.length; i++) {
+      if ((partsToBlurMask & masks[i]) == 0) {
+        continue;
+      }
+
+      // Put the i-th rectangle in the i-th ninth of the image, going along the diagonal.
+      int leftX = width * i / 3;
+      int topY = height * i / 3;
+      int rightX = leftX + width / 3;
+      int bottomY = topY + height / 3;
+      rectanglesToBlur.add(
+          Arrays.asList(
+              new Point(leftX, topY),
+              new Point(rightX, topY),
+              new Point(rightX, bottomY),
+              new Point(leftX, bottomY)));
+    }
+
+    return rectanglesToBlur;
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,59 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Class containing a downscaled and blurred version of a BlurImage, served by "/thumbnail". */
+public final class Thumbnail {
+
+  private final String key;
+  private final int width;
+
+  public Thumbnail(Key key, int width) {
+    this.key = KeyFactory.keyToString(key);
+    this.width = width;
+  }
+
+  /** Returns the thumbnails referenced from a BlurImage entity, ordered by width. */
+  @SuppressWarnings("unchecked")
+  public static List<Thumbnail> getThumbnails(Entity imageEntity) {
+    List<Thumbnail> thumbnails = new ArrayList<>();
+
+    // Photos saved before thumbnails existed have no thumbnails.
+    List<Key> keys = (List<Key>) imageEntity.getProperty("thumbnailKeys");
+    List<Long> widths = (List<Long>) imageEntity.getProperty("thumbnailWidths");
+    if (keys == null || widths == null) {
+      return thumbnails;
+    }
+
+    for (int i = 0; i < keys.size(); i++) {
+      thumbnails.add(new Thumbnail(keys.get(i), widths.get(i).intValue()));
+    }
+    return thumbnails;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Creates the thumbnails of a photo when it is saved, so the history page can show small images
+ * which are already blurred instead of downloading and blurring every original. Thumbnails are
+ * stored as "Thumbnail" Datastore entities holding the encoded JPEG, because the Blobstore API
+ * can't write new blobs.
+ */
+public final class ThumbnailGenerator {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  // Widths of the thumbnails, configured with the photoblur.thumbnail.widths system property.
+  private static final int[] widths = parseWidths(System.getProperty("photoblur.thumbnail.widths"));
+
+  private ThumbnailGenerator() {}
+
+  /**
+   * Creates and saves the thumbnails of the image represented by @param imageBytes, with @param
+   * blurAreas blurred, for the user with id @param userId. Widths bigger than the image are
+   * skipped, but at least one thumbnail is created. The thumbnails are referenced from the
+   * "thumbnailKeys" and "thumbnailWidths" properties of @param imageEntity, ordered by width, which
+   * must already have its id.
+   */
+  public static void createThumbnails(
+      byte[] imageBytes, List<List<Point>> blurAreas, String userId, Entity imageEntity)
+      throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+    if (image == null) {
+      throw new IOException("Could not decode the image.");
+    }
+
+    List<Entity> entities = new ArrayList<>();
+    List<Integer> thumbnailWidths = new ArrayList<>();
+    for (int width : widths) {
+      int thumbnailWidth = Math.min(width, image.getWidth());
+      if (thumbnailWidths.contains(thumbnailWidth)) {
+        continue;
+      }
+      thumbnailWidths.add(thumbnailWidth);
+
+      double scale = (double) thumbnailWidth / image.getWidth();
+      int thumbnailHeight = Math.max((int) Math.round(image.getHeight() * scale), 1);
+      BufferedImage scaled = scale(image, thumbnailWidth, thumbnailHeight);
+
+      // Blur the downscaled image, so we blur fewer pixels.
+      List<List<Point>> scaledAreas = scaleAreas(blurAreas, scale);
+      BufferedImage blurred =
+          BlurRenderer.render(
+              scaled, scaledAreas, BlurRenderer.getDefaultBlurRadius(scaledAreas), false);
+
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      ImageIO.write(blurred, "jpeg", encoded);
+
+      // The key is derived from the photo's key, so creating the thumbnails again replaces them.
+      Entity entity = new Entity("Thumbnail", imageEntity.getKey().getId() + "-" + thumbnailWidth);
+      entity.setProperty("userId", userId);
+      entity.setProperty("width", thumbnailWidth);
+      entity.setProperty("bytes", new Blob(encoded.toByteArray()));
+      entities.add(entity);
+    }
+
+    List<Key> keys = datastore.put(entities);
+
+    imageEntity.setUnindexedProperty("thumbnailKeys", keys);
+    imageEntity.setUnindexedProperty("thumbnailWidths", thumbnailWidths);
+  }
+
+  /**
+   * Returns @param image scaled to @param width x @param height. The image is halved several times
+   * before the last step, because a single bilinear step skips pixels when shrinking a lot. The
+   * result is TYPE_INT_RGB, so it can be encoded as JPEG.
+   */
+  static BufferedImage scale(BufferedImage image, int width, int height) {
+    BufferedImage current = image;
+    do {
+      int stepWidth = Math.max(current.getWidth() / 2, width);
+      int stepHeight = Math.max(current.getHeight() / 2, height);
+
+      BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = step.createGraphics();
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+      graphics.dispose();
+
+      current = step;
+    } while (current.getWidth() != width || current.getHeight() != height);
+
+    return current;
+  }
+
+  /** Returns the points of @param blurAreas multiplied by @param scale. */
+  private static List<List<Point>> scaleAreas(List<List<Point>> blurAreas, double scale) {
+    List<List<Point>> scaledAreas = new ArrayList<>();
+    for (List<Point> area : blurAreas) {
+      List<Point> scaledArea = new ArrayList<>();
+      for (Point point : area) {
+        scaledArea.add(
+            new Point((int) Math.round(point.x * scale), (int) Math.round(point.y * scale)));
+      }
+      scaledAreas.add(scaledArea);
+    }
+    return scaledAreas;
+  }
+
+  /** Parses and sorts a comma separated list of widths, falling back to 320 and 640 pixels. */
+  private static int[] parseWidths(String property) {
+    if (property == null || property.trim().isEmpty()) {
+      return new int[] {320, 640};
+    }
+
+    String[] parts = property.split(",");
+    int[] parsed = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      parsed[i] = Integer.parseInt(parts[i].trim());
+    }
+    Arrays.sort(parsed);
+    return parsed;
+  }
+}
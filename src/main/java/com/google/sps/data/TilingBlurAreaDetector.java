@@ -0,0 +1,203 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+/**
+ * BlurAreaDetector which splits images bigger than a tile into overlapping tiles and passes every
+ * tile to another detector, so panoramas and scans don't exceed the Vision API's size limits and
+ * small faces and plates aren't lost by shrinking the whole image. The tiles are detected as one
+ * batch, which VisionBlurAreaDetector sends together in one batch call. Tiles overlap, so a part
+ * cut by a seam is whole in at least one tile as long as it's smaller than the overlap. The areas
+ * found in several tiles are merged.
+ */
+public final class TilingBlurAreaDetector implements BlurAreaDetector {
+
+  // Two areas of different tiles are the same part if their intersection covers at least this
+  // fraction of the smaller one. A part cut by a seam is entirely inside its whole copy.
+  private static final double SAME_PART_COVERAGE = 0.5;
+
+  private static final Histogram tilingLatency =
+      Metrics.latency("detector_tiling_seconds", "Time to cut an image in tiles.");
+  private static final LongAdder tiledImages =
+      Metrics.counter("detector_tiled_images_total", "Images cut in tiles before detection.");
+
+  private final BlurAreaDetector detector;
+  private final int tileSize;
+  private final int overlap;
+
+  /**
+   * Creates a detector which cuts images wider or taller than @param tileSize pixels in tiles of
+   * that size, overlapping by @param overlap pixels, and passes the tiles to @param detector.
+   */
+  public TilingBlurAreaDetector(BlurAreaDetector detector, int tileSize, int overlap) {
+    if (overlap < 0 || overlap >= tileSize) {
+      throw new IllegalArgumentException("The overlap must be smaller than the tile size.");
+    }
+    this.detector = detector;
+    this.tileSize = tileSize;
+    this.overlap = overlap;
+  }
+
+  @Override
+  public List<List<Point>> getBlurAreas(byte[] imageBytes, int partsToBlurMask) throws IOException {
+    Dimension dimensions = ImageDimensions.read(imageBytes);
+    if (Math.max(dimensions.width, dimensions.height) <= tileSize) {
+      return detector.getBlurAreas(imageBytes, partsToBlurMask);
+    }
+
+    long startNanos = System.nanoTime();
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+    if (image == null) {
+      // Let the other detector handle images we can't decode, as it would without us.
+      return detector.getBlurAreas(imageBytes, partsToBlurMask);
+    }
+
+    List<Rectangle> tiles = new ArrayList<>();
+    for (int y : getTileStarts(image.getHeight())) {
+      for (int x : getTileStarts(image.getWidth())) {
+        tiles.add(
+            new Rectangle(
+                x, y, Math.min(tileSize, image.getWidth()), Math.min(tileSize, image.getHeight())));
+      }
+    }
+    List<byte[]> tileBytes = new ArrayList<>();
+    for (Rectangle tile : tiles) {
+      tileBytes.add(encodeTile(image, tile));
+    }
+    Metrics.recordSince(tilingLatency, startNanos);
+    tiledImages.increment();
+
+    List<List<List<Point>>> tileAreas = detector.getBlurAreasBatch(tileBytes, partsToBlurMask);
+
+    // Move every area from its tile to the image.
+    List<List<Point>> blurAreas = new ArrayList<>();
+    List<Integer> areaTiles = new ArrayList<>();
+    for (int i = 0; i < tiles.size(); i++) {
+      Rectangle tile = tiles.get(i);
+      for (List<Point> tileArea : tileAreas.get(i)) {
+        List<Point> area = new ArrayList<>();
+        for (Point point : tileArea) {
+          area.add(new Point(point.x + tile.x, point.y + tile.y));
+        }
+        blurAreas.add(area);
+        areaTiles.add(i);
+      }
+    }
+
+    return mergeAcrossTiles(blurAreas, areaTiles);
+  }
+
+  @Override
+  public void close() {
+    detector.close();
+  }
+
+  /**
+   * Returns the start of every tile along a side of @param length pixels. Tiles are @param tileSize
+   * long and overlap by at least overlap pixels, and the last one ends with the side.
+   */
+  private int[] getTileStarts(int length) {
+    if (length <= tileSize) {
+      return new int[] {0};
+    }
+
+    int step = tileSize - overlap;
+    int count = (length - overlap + step - 1) / step;
+    int[] starts = new int[count];
+    for (int i = 0; i < count; i++) {
+      starts[i] = Math.min(i * step, length - tileSize);
+    }
+    return starts;
+  }
+
+  /** Returns the part @param tile of @param image, encoded as JPEG. */
+  private static byte[] encodeTile(BufferedImage image, Rectangle tile) throws IOException {
+    // Draw on an RGB image, because JPEG can't have an alpha channel.
+    BufferedImage tileImage =
+        new BufferedImage(tile.width, tile.height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = tileImage.createGraphics();
+    graphics.drawImage(image, -tile.x, -tile.y, null);
+    graphics.dispose();
+
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    ImageIO.write(tileImage, "jpeg", encoded);
+    return encoded.toByteArray();
+  }
+
+  /**
+   * Returns @param blurAreas with the areas found in different tiles, according to @param
+   * areaTiles, merged into their bounding rectangle when they are the same part. Areas of the same
+   * tile are kept apart, because the other detector already told them apart.
+   */
+  private static List<List<Point>> mergeAcrossTiles(
+      List<List<Point>> blurAreas, List<Integer> areaTiles) {
+    List<Rectangle> bounds = new ArrayList<>();
+    for (List<Point> area : blurAreas) {
+      // An area without points matches nothing.
+      bounds.add(area.isEmpty() ? new Rectangle() : BlurAreaMerger.getBounds(area));
+    }
+
+    // Merged areas are removed by setting them to null. Merging can make an area the same part as
+    // one it didn't match before, so we loop until nothing changes.
+    boolean merged;
+    do {
+      merged = false;
+      for (int i = 0; i < blurAreas.size(); i++) {
+        for (int j = i + 1; j < blurAreas.size() && blurAreas.get(i) != null; j++) {
+          if (blurAreas.get(j) == null
+              || areaTiles.get(i).equals(areaTiles.get(j))
+              || !isSamePart(bounds.get(i), bounds.get(j))) {
+            continue;
+          }
+
+          Rectangle union = bounds.get(i).union(bounds.get(j));
+          bounds.set(i, union);
+          blurAreas.set(i, BlurAreaMerger.toPoints(union));
+          blurAreas.set(j, null);
+          merged = true;
+        }
+      }
+    } while (merged);
+
+    List<List<Point>> result = new ArrayList<>();
+    for (List<Point> area : blurAreas) {
+      if (area != null) {
+        result.add(area);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isSamePart(Rectangle a, Rectangle b) {
+    Rectangle intersection = a.intersection(b);
+    if (intersection.isEmpty()) {
+      return false;
+    }
+    double smallerArea = Math.min((double) a.width * a.height, (double) b.width * b.height);
+    return (double) intersection.width * intersection.height >= SAME_PART_COVERAGE * smallerArea;
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Counts the storage space used by a user. The count is split in shards, each one a separate entity
+ * group, and every change is a transactional increment of a random shard. So parallel uploads of
+ * the same user neither lose updates nor wait for each other. The used space is the sum of the
+ * shards, which is cached in memcache for displaying, plus the space counted on the user's entity
+ * before the shards existed.
+ */
+final class UsedSpaceCounter {
+
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private static final String SHARD_KIND = "UsedSpaceShard";
+
+  // Number of shards of every user. Shards are never moved, so this number must never decrease.
+  private static final int SHARD_COUNT = 8;
+
+  // How many times an increment is tried on another shard when its transaction fails.
+  private static final int MAX_INCREMENT_ATTEMPTS = 3;
+
+  // How long the sum of the shards is kept in memcache. Changes remove it from memcache, so this
+  // only bounds how long a sum cached concurrently with a change can be wrong.
+  private static final int CACHE_TTL_SECONDS = 60;
+
+  private final String userId;
+  private final long legacyUsedSpace;
+
+  /**
+   * Creates the counter of the user with id @param userId, who used @param legacyUsedSpace bytes
+   * before the shards existed.
+   */
+  UsedSpaceCounter(String userId, long legacyUsedSpace) {
+    this.userId = userId;
+    this.legacyUsedSpace = legacyUsedSpace;
+  }
+
+  /** Returns the used space, from memcache if the sum of the shards is cached. */
+  long getCached() {
+    Long shardsSum = (Long) memcache.get(getCacheKey());
+    if (shardsSum == null) {
+      return getFresh();
+    }
+    return legacyUsedSpace + shardsSum;
+  }
+
+  /** Returns the used space summed from the database, which includes every committed change. */
+  long getFresh() {
+    Map<Key, Entity> shards = datastore.get(getShardKeys());
+
+    long shardsSum = 0;
+    for (Entity shard : shards.values()) {
+      shardsSum += (long) shard.getProperty("count");
+    }
+
+    memcache.put(getCacheKey(), shardsSum, Expiration.byDeltaSeconds(CACHE_TTL_SECONDS));
+    return legacyUsedSpace + shardsSum;
+  }
+
+  /**
+   * Adds @param delta bytes, which can be negative, to the used space. Throws
+   * ConcurrentModificationException if every attempt collided with other changes.
+   */
+  void add(long delta) {
+    List<Key> shardKeys = getShardKeys();
+
+    ConcurrentModificationException lastException = null;
+    for (int attempt = 0; attempt < MAX_INCREMENT_ATTEMPTS; attempt++) {
+      Key shardKey = shardKeys.get(ThreadLocalRandom.current().nextInt(SHARD_COUNT));
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity shard;
+        try {
+          shard = datastore.get(transaction, shardKey);
+        } catch (EntityNotFoundException e) {
+          shard = new Entity(shardKey);
+          shard.setUnindexedProperty("count", 0L);
+        }
+        shard.setUnindexedProperty("count", (long) shard.getProperty("count") + delta);
+        datastore.put(transaction, shard);
+        transaction.commit();
+
+        // The cached sum is outdated now.
+        memcache.delete(getCacheKey());
+        return;
+      } catch (ConcurrentModificationException e) {
+        lastException = e;
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    throw lastException;
+  }
+
+  private List<Key> getShardKeys() {
+    List<Key> keys = new ArrayList<>(SHARD_COUNT);
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      keys.add(KeyFactory.createKey(SHARD_KIND, userId + "-" + i));
+    }
+    return keys;
+  }
+
+  private String getCacheKey() {
+    return SHARD_KIND + ":" + userId;
+  }
+}
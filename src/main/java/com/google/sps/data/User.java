@@ -16,10 +16,13 @@ package com.google.sps.data;
 
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import javax.servlet.http.HttpServletRequest;
 
 /** Class containing a user. */
 public abstract class User {
 
+  private static final UserService userService = UserServiceFactory.getUserService();
+
   private final Boolean loggedIn;
 
   public User(Boolean loggedIn) {
@@ -30,9 +33,21 @@ public abstract class User {
     return loggedIn;
   }
 
-  public static User getCurrentUser() {
+  /**
+   * Returns the current user, loaded once per @param request. The user is kept in a request
+   * attribute named after this class. The name is not a field, so "/user" doesn't send it.
+   */
+  public static User getCurrentUser(HttpServletRequest request) {
+    User user = (User) request.getAttribute(User.class.getName());
+    if (user == null) {
+      user = getCurrentUser();
+      request.setAttribute(User.class.getName(), user);
+    }
+    return user;
+  }
+
+  private static User getCurrentUser() {
     User user;
-    UserService userService = UserServiceFactory.getUserService();
 
     if (userService.isUserLoggedIn()) {
       // Load user variables.
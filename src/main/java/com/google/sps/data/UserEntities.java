@@ -0,0 +1,132 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.ConcurrentModificationException;
+
+/**
+ * Loads the "User" entities. An entity's key name is the id of its user, so it is read with a get
+ * instead of a query, and it is kept in memcache for a short time so most requests don't reach the
+ * database at all.
+ */
+final class UserEntities {
+
+  private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private static final String USER_KIND = "User";
+
+  // How long a user entity is kept in memcache, shared by all instances.
+  private static final int CACHE_TTL_SECONDS =
+      Integer.getInteger("photoblur.user.cacheTtlSeconds", 60);
+
+  private UserEntities() {}
+
+  /**
+   * Returns the entity of the user with id @param userId from memcache or, if it isn't there, from
+   * the database. Users saved before entities were keyed by user id are moved to the new key. New
+   * users are added.
+   */
+  static Entity get(String userId) {
+    Entity userEntity = (Entity) memcache.get(getCacheKey(userId));
+    if (userEntity != null) {
+      return userEntity;
+    }
+
+    Key key = KeyFactory.createKey(USER_KIND, userId);
+    try {
+      userEntity = datastore.get(key);
+    } catch (EntityNotFoundException e) {
+      userEntity = migrateLegacyEntity(userId, key);
+    }
+
+    putInCache(userEntity);
+    return userEntity;
+  }
+
+  /**
+   * Moves the entity of the user with id @param userId, saved with an automatic id and found by
+   * querying its "id" property, to @param key. Creates a new entity if the user is not in database
+   * yet. Parallel requests of a new user can both get here, so the entity is only written if no
+   * other request wrote it first, in a cross-group transaction which also deletes the old entity.
+   */
+  private static Entity migrateLegacyEntity(String userId, Key key) {
+    // Queries can't run inside a cross-group transaction, so the old entity is found before it.
+    Query query = new Query(USER_KIND);
+    query.setFilter(new Query.FilterPredicate("id", Query.FilterOperator.EQUAL, userId));
+    PreparedQuery results = datastore.prepare(query);
+    Entity legacyEntity = results.asSingleEntity();
+
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      try {
+        // Another request moved or added the entity since we looked for it.
+        return datastore.get(transaction, key);
+      } catch (EntityNotFoundException e) {
+        // The entity still has to be written.
+      }
+
+      Entity userEntity = new Entity(key);
+      if (legacyEntity == null) {
+        // If the user is not in database yet, add them.
+        userEntity.setProperty("id", userId);
+        userEntity.setProperty("usedSpace", 0l);
+        datastore.put(transaction, userEntity);
+      } else {
+        userEntity.setPropertiesFrom(legacyEntity);
+        datastore.put(transaction, userEntity);
+        datastore.delete(transaction, legacyEntity.getKey());
+      }
+      transaction.commit();
+
+      return userEntity;
+    } catch (ConcurrentModificationException e) {
+      // Another request wrote the entity at the same time, so use theirs.
+      try {
+        return datastore.get(key);
+      } catch (EntityNotFoundException notFound) {
+        throw e;
+      }
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  private static void putInCache(Entity userEntity) {
+    memcache.put(
+        getCacheKey(userEntity.getKey().getName()),
+        userEntity,
+        Expiration.byDeltaSeconds(CACHE_TTL_SECONDS));
+  }
+
+  private static String getCacheKey(String userId) {
+    return USER_KIND + ":" + userId;
+  }
+}
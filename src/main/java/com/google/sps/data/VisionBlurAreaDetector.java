@@ -0,0 +1,218 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageRequest.Builder;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BoundingPoly;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.FaceAnnotation;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+import com.google.cloud.vision.v1.LocalizedObjectAnnotation;
+import com.google.cloud.vision.v1.NormalizedVertex;
+import com.google.cloud.vision.v1.Vertex;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import org.threeten.bp.Duration;
+
+/**
+ * BlurAreaDetector backed by the Google Cloud Vision API. The detector sends its requests through
+ * an AnnotateRequestBatcher, which owns a single ImageAnnotatorClient living as long as the
+ * detector. That way the gRPC channels, TLS sessions and credentials are set up once per instance
+ * instead of once per request, and concurrent requests share batchAnnotateImages calls.
+ */
+public final class VisionBlurAreaDetector implements BlurAreaDetector {
+
+  private static final Logger logger = Logger.getLogger(VisionBlurAreaDetector.class.getName());
+
+  private static final LongAdder visionErrors =
+      Metrics.counter("vision_errors_total", "Vision API responses with an error.");
+  private static final Histogram annotateLatency =
+      Metrics.latency("vision_annotate_seconds", "Time for the Vision API to annotate an image.");
+
+  private final AnnotateRequestBatcher batcher;
+
+  public VisionBlurAreaDetector(AnnotateRequestBatcher batcher) {
+    this.batcher = batcher;
+  }
+
+  /**
+   * Creates a client which keeps @param channelPoolSize gRPC channels open. A single annotate call
+   * may take at most @param rpcTimeoutMillis, and the call including its retries at most @param
+   * totalTimeoutMillis.
+   */
+  public static ImageAnnotatorClient createClient(
+      int channelPoolSize, long rpcTimeoutMillis, long totalTimeoutMillis) throws IOException {
+    ImageAnnotatorSettings.Builder settingsBuilder = ImageAnnotatorSettings.newBuilder();
+
+    settingsBuilder.setTransportChannelProvider(
+        ImageAnnotatorSettings.defaultGrpcTransportProviderBuilder()
+            .setPoolSize(channelPoolSize)
+            .build());
+
+    RetrySettings retrySettings =
+        settingsBuilder.batchAnnotateImagesSettings().getRetrySettings().toBuilder()
+            .setInitialRpcTimeout(Duration.ofMillis(rpcTimeoutMillis))
+            .setMaxRpcTimeout(Duration.ofMillis(rpcTimeoutMillis))
+            .setTotalTimeout(Duration.ofMillis(totalTimeoutMillis))
+            .build();
+    settingsBuilder.batchAnnotateImagesSettings().setRetrySettings(retrySettings);
+
+    return ImageAnnotatorClient.create(settingsBuilder.build());
+  }
+
+  @Override
+  public List<List<Point>> getBlurAreas(byte[] imageBytes, int partsToBlurMask) throws IOException {
+    // Annotate the image from our request, together with the requests of other threads. The
+    // deadlines of the client make the call fail instead of holding the request forever.
+    long startNanos = System.nanoTime();
+    AnnotateImageResponse res = batcher.annotate(createRequest(imageBytes, partsToBlurMask));
+    Metrics.recordSince(annotateLatency, startNanos);
+
+    return toBlurAreas(res, imageBytes);
+  }
+
+  /** Sends all of @param images to the API together, instead of waiting for a batch to fill. */
+  @Override
+  public List<List<List<Point>>> getBlurAreasBatch(List<byte[]> images, int partsToBlurMask)
+      throws IOException {
+    List<AnnotateImageRequest> requests = new ArrayList<>();
+    for (byte[] imageBytes : images) {
+      requests.add(createRequest(imageBytes, partsToBlurMask));
+    }
+
+    long startNanos = System.nanoTime();
+    List<AnnotateImageResponse> responses = batcher.annotateAll(requests);
+    Metrics.recordSince(annotateLatency, startNanos);
+
+    List<List<List<Point>>> blurAreas = new ArrayList<>();
+    for (int i = 0; i < images.size(); i++) {
+      blurAreas.add(toBlurAreas(responses.get(i), images.get(i)));
+    }
+    return blurAreas;
+  }
+
+  @Override
+  public void close() {
+    batcher.close();
+  }
+
+  /**
+   * Returns the request for the image represented by @param imageBytes, which asks for the parts of
+   * the mask @param partsToBlurMask.
+   */
+  private static AnnotateImageRequest createRequest(byte[] imageBytes, int partsToBlurMask) {
+    // Convert bytes to an Image object. The bytes are wrapped instead of copied, so callers must
+    // not modify imageBytes while the request is being sent.
+    ByteString byteString = UnsafeByteOperations.unsafeWrap(imageBytes);
+    Image image = Image.newBuilder().setContent(byteString).build();
+
+    // This will hold the image and the features we want to detect.
+    Builder requestBuilder = AnnotateImageRequest.newBuilder();
+
+    // Check which parts our bitmask contains and add the corresponding features to requestBuilder.
+    // setMaxResults(0) disables the maximum limit of features to return.
+    if ((partsToBlurMask & FACE_BLUR_MASK) != 0) {
+      Feature feature =
+          Feature.newBuilder().setType(Feature.Type.FACE_DETECTION).setMaxResults(0).build();
+      requestBuilder.addFeatures(feature);
+    }
+    if ((partsToBlurMask & PLATE_BLUR_MASK) != 0) {
+      Feature feature =
+          Feature.newBuilder().setType(Feature.Type.OBJECT_LOCALIZATION).setMaxResults(0).build();
+      requestBuilder.addFeatures(feature);
+    }
+    if ((partsToBlurMask & LOGO_BLUR_MASK) != 0) {
+      Feature feature =
+          Feature.newBuilder().setType(Feature.Type.LOGO_DETECTION).setMaxResults(0).build();
+      requestBuilder.addFeatures(feature);
+    }
+
+    requestBuilder.setImage(image);
+    return requestBuilder.build();
+  }
+
+  /**
+   * Returns the rectangles to blur found in @param res, the Vision API's response for the image
+   * represented by @param imageBytes. Package-private so it can be benchmarked without the API.
+   */
+  static List<List<Point>> toBlurAreas(AnnotateImageResponse res, byte[] imageBytes)
+      throws IOException {
+    // This is the array that we will return.
+    List<List<Point>> rectanglesToBlur = new ArrayList<>();
+
+    // If there was any internal error in the Cloud Vision API, skip the response.
+    if (res.hasError()) {
+      visionErrors.increment();
+      logger.warning("Vision API error: " + res.getError());
+      return rectanglesToBlur;
+    }
+
+    // For each face detected add a rectangle represented by an array of points.
+    for (FaceAnnotation face : res.getFaceAnnotationsList()) {
+      rectanglesToBlur.add(getPoints(face.getFdBoundingPoly()));
+    }
+
+    // For each object detected add a rectangle represented by an array of points if it is a
+    // license plate.
+    // We need the width and height of the image to denormalize the plates' coordinates. They are
+    // read from the image header only once we find a plate.
+    Dimension dimensions = null;
+    for (LocalizedObjectAnnotation object : res.getLocalizedObjectAnnotationsList()) {
+      if (object.getName().equals("License plate")) {
+        if (dimensions == null) {
+          dimensions = ImageDimensions.read(imageBytes);
+        }
+
+        ArrayList<Point> points = new ArrayList<>();
+        for (NormalizedVertex vertex : object.getBoundingPoly().getNormalizedVerticesList()) {
+          // Localized object bounding polys contain normalized vertices with coordinates in
+          // [0, 1] so we have to denormalize them.
+          Integer x = Math.round(vertex.getX() * dimensions.width);
+          Integer y = Math.round(vertex.getY() * dimensions.height);
+          points.add(new Point(x, y));
+        }
+        rectanglesToBlur.add(points);
+      }
+    }
+
+    // For each logo detected add a rectangle represented by an array of points.
+    for (EntityAnnotation logo : res.getLogoAnnotationsList()) {
+      rectanglesToBlur.add(getPoints(logo.getBoundingPoly()));
+    }
+
+    return rectanglesToBlur;
+  }
+
+  /** Returns an ArrayList containing a BoundingPoly's points. */
+  static ArrayList<Point> getPoints(BoundingPoly poly) {
+    ArrayList<Point> points = new ArrayList<>();
+    for (Vertex vertex : poly.getVerticesList())
+      points.add(new Point(vertex.getX(), vertex.getY()));
+    return points;
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.BlobMetadata;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that stores the blob's size and content type on the BlurImage entities saved before these
+ * properties existed. The entities are processed in batches, each batch in its own task which
+ * enqueues the next one with the cursor where it stopped.
+ */
+@WebServlet(BackfillBlobMetadataServlet.PATH)
+public class BackfillBlobMetadataServlet extends HttpServlet {
+
+  private static final UserService userService = UserServiceFactory.getUserService();
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private static final Logger logger =
+      Logger.getLogger(BackfillBlobMetadataServlet.class.getName());
+
+  static final String PATH = "/tasks/backfill-blob-metadata";
+
+  // Number of entities processed by one task.
+  private static final int BATCH_SIZE = 100;
+
+  /**
+   * Method that handles the GET requests to "/tasks/backfill-blob-metadata" path. Starts the
+   * backfill if the current user is an admin of the application.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Only admins can start the backfill!");
+      response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    enqueueBatch(null);
+
+    response.setContentType("text/html;");
+    response.getWriter().println("Backfill started.");
+  }
+
+  /**
+   * Method that handles the POST requests to "/tasks/backfill-blob-metadata" path, sent by the task
+   * queue. Parameter "cursor" specifies where the batch starts, or is missing for the first batch.
+   * Any exception makes the task queue retry the batch, which is safe because entities which
+   * already have the properties are skipped.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromTaskQueue(request, response)) {
+      return;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursorString));
+    }
+
+    QueryResultList<Entity> photoEntities =
+        datastore.prepare(new Query("BlurImage")).asQueryResultList(fetchOptions);
+
+    List<Entity> changedEntities = BlobMetadata.fillMissingProperties(photoEntities);
+
+    // Save each entity in a transaction which reloads it first, so we don't bring back a photo
+    // deleted since the query, or overwrite other changes made to it.
+    for (Entity changedEntity : changedEntities) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity entity = datastore.get(transaction, changedEntity.getKey());
+        if (!BlobMetadata.hasProperties(entity)) {
+          entity.setUnindexedProperty(
+              BlobMetadata.SIZE_PROPERTY, BlobMetadata.getSize(changedEntity));
+          entity.setUnindexedProperty(
+              BlobMetadata.CONTENT_TYPE_PROPERTY, BlobMetadata.getContentType(changedEntity));
+          datastore.put(transaction, entity);
+        }
+        transaction.commit();
+      } catch (EntityNotFoundException e) {
+        // The photo was deleted, so there is nothing to update.
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+
+    // A full batch means there may be more entities after it.
+    if (photoEntities.size() == BATCH_SIZE) {
+      enqueueBatch(photoEntities.getCursor().toWebSafeString());
+    } else {
+      logger.info("Blob metadata backfill finished.");
+    }
+  }
+
+  /** Adds a task processing the batch starting at @param cursorString to the default queue. */
+  private void enqueueBatch(String cursorString) {
+    TaskOptions task = TaskOptions.Builder.withUrl(PATH).method(TaskOptions.Method.POST);
+    if (cursorString != null) {
+      task.param("cursor", cursorString);
+    }
+    QueueFactory.getDefaultQueue().add(task);
+  }
+}
@@ -25,6 +25,9 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/blobstore-upload-url")
 public class BlobstoreUploadUrlServlet extends HttpServlet {
 
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+
   /**
    * Expects forwardurl parameter: the url to redirect after the user uploaded a file. Responds with
    * an URL that uploads a file to blobstore and redirects to forwardurl.
@@ -41,7 +44,6 @@ public class BlobstoreUploadUrlServlet extends HttpServlet {
       return;
     }
 
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     String uploadUrl;
 
     // Exception is thrown if forwardurl is invalid.
@@ -0,0 +1,166 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.gson.Gson;
+import com.google.sps.data.DetectionJob;
+import com.google.sps.data.Histogram;
+import com.google.sps.data.LoggedUser;
+import com.google.sps.data.Metrics;
+import com.google.sps.data.User;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns the state of a detection job started by "/get-blur-areas" with parameter
+ * "mode" set to "async". Clients either long-poll it, or open it as an EventSource.
+ */
+@WebServlet("/blur-areas-job")
+public class BlurAreasJobServlet extends HttpServlet {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  // Longest time a request waits for its job, well below the request deadline.
+  private static final int MAX_WAIT_SECONDS = 25;
+
+  // How often a waiting request reads its job again.
+  private static final long POLL_INTERVAL_MILLIS = 500;
+
+  // How long an EventSource waits before reconnecting to a job which is still pending.
+  private static final long EVENT_SOURCE_RETRY_MILLIS = 1000;
+
+  private static final Gson gson = new Gson();
+
+  private static final LongAdder requests =
+      Metrics.counter("blur_areas_job_requests_total", "Requests to /blur-areas-job.");
+  private static final Histogram waitLatency =
+      Metrics.latency(
+          "blur_areas_job_wait_seconds", "Time a request to /blur-areas-job waited for its job.");
+
+  /**
+   * Method that handles the GET requests to "/blur-areas-job" path. Parameter "id" specifies the
+   * job. Optional parameter "wait" specifies how many seconds, at most MAX_WAIT_SECONDS, to wait
+   * for a pending job to finish before responding. Returns the job as a JSON object with its "id",
+   * its "status", which is "pending", "done" or "failed", and when it's done its "blurAreas" and
+   * the "photoId" of the saved photo, if it was saved.
+   *
+   * <p>If the request accepts "text/event-stream", it waits MAX_WAIT_SECONDS by default and the job
+   * is sent as a server-sent event named after its status. App Engine sends a response only when
+   * it's complete, so every connection carries one event, and an EventSource reconnects on its own
+   * until it gets the "done" or "failed" event and closes.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    requests.increment();
+    String accept = request.getHeader("Accept");
+    boolean eventStream = accept != null && accept.contains("text/event-stream");
+
+    int waitSeconds;
+    try {
+      String waitParameter = request.getParameter("wait");
+      waitSeconds =
+          waitParameter == null
+              ? (eventStream ? MAX_WAIT_SECONDS : 0)
+              : Math.max(Math.min(Integer.parseInt(waitParameter), MAX_WAIT_SECONDS), 0);
+    } catch (NumberFormatException e) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Parameter wait must be a number of seconds.");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    String jobId = request.getParameter("id");
+    Entity jobEntity = jobId == null || jobId.isEmpty() ? null : getJob(request, jobId);
+    if (jobEntity == null) {
+      response.setContentType("text/html;");
+      response.getWriter().println("There is no such job.");
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(waitSeconds);
+    while (DetectionJob.isPending(jobEntity) && System.nanoTime() < deadlineNanos) {
+      try {
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      Entity latest = readJob(jobId);
+      if (latest == null) {
+        break;
+      }
+      jobEntity = latest;
+    }
+    Metrics.recordSince(waitLatency, startNanos);
+
+    DetectionJob job = DetectionJob.fromEntity(jobEntity);
+    response.setHeader("Cache-Control", "no-store");
+    if (!eventStream) {
+      response.setContentType("application/json");
+      response.getWriter().println(gson.toJson(job));
+      return;
+    }
+
+    response.setCharacterEncoding("UTF-8");
+    response.setContentType("text/event-stream");
+    PrintWriter writer = response.getWriter();
+    writer.print("retry: " + EVENT_SOURCE_RETRY_MILLIS + "\n");
+    writer.print("event: " + job.getStatus() + "\n");
+    writer.print("data: " + gson.toJson(job) + "\n\n");
+    writer.flush();
+  }
+
+  /**
+   * Returns the job with id @param jobId, or null if it doesn't exist or was started by another
+   * user than the one of @param request. Jobs of users who are not logged in are found by id only.
+   */
+  private static Entity getJob(HttpServletRequest request, String jobId) {
+    Entity jobEntity = readJob(jobId);
+    if (jobEntity == null) {
+      return null;
+    }
+
+    String userId = DetectionJob.getUserId(jobEntity);
+    if (userId == null) {
+      return jobEntity;
+    }
+    User user = User.getCurrentUser(request);
+    if (!user.isLoggedIn() || !userId.equals(((LoggedUser) user).getId())) {
+      return null;
+    }
+    return jobEntity;
+  }
+
+  /** Returns the job with id @param jobId, or null if it doesn't exist. */
+  private static Entity readJob(String jobId) {
+    try {
+      return datastore.get(DetectionJob.getKey(jobId));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import com.google.sps.data.CachingBlurAreaDetector;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that deletes the BlurAreasCache entities older than the Datastore tier's TTL, so results
+ * which are never read again don't stay forever. Called daily by cron, see cron.xml.
+ */
+@WebServlet(CleanupBlurAreasCacheServlet.PATH)
+public class CleanupBlurAreasCacheServlet extends HttpServlet {
+
+  static final String PATH = "/tasks/cleanup-blur-areas-cache";
+
+  /**
+   * Method that handles the GET requests to "/tasks/cleanup-blur-areas-cache" path, sent by cron.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromCron(request, response)) {
+      return;
+    }
+
+    deleteExpired();
+  }
+
+  /**
+   * Method that handles the POST requests to "/tasks/cleanup-blur-areas-cache" path, sent by the
+   * task queue when a batch was not enough.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromTaskQueue(request, response)) {
+      return;
+    }
+
+    deleteExpired();
+  }
+
+  private static void deleteExpired() {
+    ExpiredEntities.deleteBatch(
+        CachingBlurAreaDetector.CACHE_KIND,
+        TimeUnit.SECONDS.toMillis(Long.getLong("photoblur.cache.datastoreTtlSeconds", 604800)),
+        PATH);
+  }
+}
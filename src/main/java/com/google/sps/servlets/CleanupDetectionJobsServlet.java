@@ -0,0 +1,115 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.sps.data.DetectionJob;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that deletes the DetectionJob entities older than their TTL. A finished job's photo, if
+ * saved, is in the user's history by then. A job still pending, because its task never ran, is
+ * deleted with a task deleting its blob, since no one else would. Called daily by cron, see
+ * cron.xml.
+ */
+@WebServlet(CleanupDetectionJobsServlet.PATH)
+public class CleanupDetectionJobsServlet extends HttpServlet {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static final Queue queue = QueueFactory.getDefaultQueue();
+
+  static final String PATH = "/tasks/cleanup-detection-jobs";
+
+  /** Method that handles the GET requests to "/tasks/cleanup-detection-jobs" path, sent by cron. */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromCron(request, response)) {
+      return;
+    }
+
+    deleteExpired();
+  }
+
+  /**
+   * Method that handles the POST requests to "/tasks/cleanup-detection-jobs" path, sent by the task
+   * queue when a batch was not enough.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromTaskQueue(request, response)) {
+      return;
+    }
+
+    deleteExpired();
+  }
+
+  private static void deleteExpired() {
+    List<Key> jobKeys =
+        ExpiredEntities.findBatch(
+            DetectionJob.KIND,
+            TimeUnit.SECONDS.toMillis(Long.getLong("photoblur.jobs.ttlSeconds", 86400)));
+
+    // Finished jobs don't change anymore, so they are deleted together.
+    List<Key> finishedKeys = new ArrayList<>();
+    for (Entity jobEntity : datastore.get(jobKeys).values()) {
+      if (DetectionJob.isPending(jobEntity)) {
+        deletePendingJob(jobEntity.getKey());
+      } else {
+        finishedKeys.add(jobEntity.getKey());
+      }
+    }
+    datastore.delete(finishedKeys);
+
+    ExpiredEntities.enqueueNextBatch(jobKeys, PATH);
+  }
+
+  /**
+   * Deletes the job with key @param jobKey, and its blob if the job is still pending, in a
+   * transaction, so a task running the job at the same time either finishes it first or finds it
+   * deleted.
+   */
+  private static void deletePendingJob(Key jobKey) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity jobEntity = datastore.get(transaction, jobKey);
+      if (DetectionJob.isPending(jobEntity)) {
+        queue.add(
+            transaction, DeleteBlobTaskServlet.createTask(DetectionJob.getBlobKey(jobEntity)));
+      }
+      datastore.delete(transaction, jobKey);
+      transaction.commit();
+    } catch (EntityNotFoundException | ConcurrentModificationException e) {
+      // The job was deleted, or is being finished, and the next cleanup deletes it.
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+}
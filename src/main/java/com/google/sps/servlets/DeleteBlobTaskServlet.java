@@ -0,0 +1,59 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that deletes a blob as a task queue task, so requests don't wait for photos which are not
+ * kept to be deleted.
+ */
+@WebServlet(DeleteBlobTaskServlet.PATH)
+public class DeleteBlobTaskServlet extends HttpServlet {
+
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+
+  static final String PATH = "/tasks/delete-blob";
+
+  /** Returns a task which deletes the blob with key @param blobKey. */
+  static TaskOptions createTask(BlobKey blobKey) {
+    return TaskOptions.Builder.withUrl(PATH)
+        .method(TaskOptions.Method.POST)
+        .param("blob-key", blobKey.getKeyString());
+  }
+
+  /**
+   * Method that handles the POST requests to "/tasks/delete-blob" path, sent by the task queue.
+   * Parameter "blob-key" specifies the blob to delete. Deleting a blob which doesn't exist does
+   * nothing, so a retried task is safe.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromTaskQueue(request, response)) {
+      return;
+    }
+
+    blobstoreService.delete(new BlobKey(request.getParameter("blob-key")));
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.BlurAreaDetectors;
+import com.google.sps.data.CachingBlurAreaDetector;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the hit and miss counters of this instance's detection cache. */
+@WebServlet("/detection-cache-stats")
+public class DetectionCacheStatsServlet extends HttpServlet {
+
+  private static final UserService userService = UserServiceFactory.getUserService();
+
+  private static final Gson gson = new Gson();
+
+  /**
+   * Method that handles the GET requests to "/detection-cache-stats" path. Returns a JSON object
+   * with the counters, or an empty object if the cache is disabled or not created yet. Only admins
+   * of the application can see them.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Only admins can see the cache stats!");
+      response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    Map<String, Long> stats = new LinkedHashMap<>();
+
+    CachingBlurAreaDetector cache = BlurAreaDetectors.getCache();
+    if (cache != null) {
+      stats.put("memoryHits", cache.getMemoryHits());
+      stats.put("datastoreHits", cache.getDatastoreHits());
+      stats.put("misses", cache.getMisses());
+      stats.put("memorySize", (long) cache.getMemorySize());
+    }
+
+    // Send the JSON as the response.
+    response.setContentType("application/json;");
+    response.getWriter().println(gson.toJson(stats));
+  }
+}
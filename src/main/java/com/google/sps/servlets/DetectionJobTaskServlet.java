@@ -0,0 +1,265 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.data.BlobMetadata;
+import com.google.sps.data.BlobReader;
+import com.google.sps.data.BlurAreaDetectors;
+import com.google.sps.data.DetectionJob;
+import com.google.sps.data.Histogram;
+import com.google.sps.data.LoggedUser;
+import com.google.sps.data.Metrics;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that runs detection jobs as task queue tasks, so "/get-blur-areas" can respond with the
+ * job's id before the photo is read, its blur areas are found and it is saved. A finished job keeps
+ * the blur areas for "/blur-areas-job" and, for a logged in user with enough space, adds the task
+ * saving the photo as a BlurImage in the same transaction, so the photo is saved exactly once.
+ *
+ * <p>If system property "photoblur.jobs.runner" is "executor", jobs run on background threads of
+ * the instance instead of the task queue. That is a stand-in for running locally or in load tests:
+ * App Engine only allows background threads on manually scaled instances.
+ */
+@WebServlet(DetectionJobTaskServlet.PATH)
+public class DetectionJobTaskServlet extends HttpServlet {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static final Queue queue = QueueFactory.getDefaultQueue();
+
+  private static final Logger logger = Logger.getLogger(DetectionJobTaskServlet.class.getName());
+
+  static final String PATH = "/tasks/detect-blur-areas";
+
+  // A job which failed this many times is marked failed instead of being retried again.
+  private static final int MAX_ATTEMPTS = 3;
+
+  private static final Histogram queueLatency =
+      Metrics.latency(
+          "detection_job_queue_seconds", "Time from creating a detection job to running it.");
+  private static final Histogram runLatency =
+      Metrics.latency("detection_job_run_seconds", "Time to run a detection job.");
+  private static final LongAdder failedJobs =
+      Metrics.counter("detection_jobs_failed_total", "Detection jobs which gave up.");
+
+  // Runs the jobs when they don't go through the task queue, or null if they do.
+  private static final ExecutorService executor = createExecutor();
+
+  /**
+   * Starts the job with id @param jobId, by adding its task to the queue or on a background thread.
+   * Throws an exception if the job could not be started.
+   */
+  static void startJob(String jobId) {
+    if (executor == null) {
+      queue.add(
+          TaskOptions.Builder.withUrl(PATH).method(TaskOptions.Method.POST).param("job-id", jobId));
+      return;
+    }
+
+    executor.execute(
+        () -> {
+          try {
+            runJob(jobId, true);
+          } catch (IOException | RuntimeException e) {
+            logger.warning("Detection job " + jobId + " failed: " + e);
+          }
+        });
+  }
+
+  /**
+   * Method that handles the POST requests to "/tasks/detect-blur-areas" path, sent by the task
+   * queue. Parameter "job-id" specifies the job to run. Any exception makes the task queue retry
+   * the task, until the last attempt, which marks the job failed instead.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromTaskQueue(request, response)) {
+      return;
+    }
+
+    String retryCount = request.getHeader("X-AppEngine-TaskRetryCount");
+    boolean lastAttempt = retryCount != null && Integer.parseInt(retryCount) >= MAX_ATTEMPTS - 1;
+    runJob(request.getParameter("job-id"), lastAttempt);
+  }
+
+  /**
+   * Finds the blur areas of the job with id @param jobId and saves its photo. If anything fails,
+   * the job is marked failed when @param lastAttempt is true, and the exception is thrown
+   * otherwise, so the job can be retried. Running a job which is not pending does nothing.
+   */
+  private static void runJob(String jobId, boolean lastAttempt) throws IOException {
+    Entity jobEntity;
+    try {
+      jobEntity = datastore.get(DetectionJob.getKey(jobId));
+    } catch (EntityNotFoundException e) {
+      logger.warning("Detection job " + jobId + " doesn't exist.");
+      return;
+    }
+    if (!DetectionJob.isPending(jobEntity)) {
+      return;
+    }
+    queueLatency.record(
+        TimeUnit.MILLISECONDS.toNanos(
+            System.currentTimeMillis() - DetectionJob.getDateCreated(jobEntity).getTime()));
+
+    long startNanos = System.nanoTime();
+    try {
+      List<List<Point>> blurAreas = findBlurAreas(jobEntity);
+      finishJob(jobEntity, blurAreas);
+    } catch (IOException | RuntimeException e) {
+      if (!lastAttempt) {
+        throw e;
+      }
+      failJob(jobEntity.getKey(), e.toString());
+    } finally {
+      Metrics.recordSince(runLatency, startNanos);
+    }
+  }
+
+  /** Returns the blur areas of the photo of @param jobEntity. */
+  private static List<List<Point>> findBlurAreas(Entity jobEntity) throws IOException {
+    int partsToBlurMask = DetectionJob.getPartsToBlurMask(jobEntity);
+    if (partsToBlurMask == 0) {
+      return new ArrayList<List<Point>>();
+    }
+
+    byte[] imageBytes =
+        BlobReader.readBlob(DetectionJob.getBlobKey(jobEntity), BlobMetadata.getSize(jobEntity));
+    return BlurAreaDetectors.getDetector().getBlurAreas(imageBytes, partsToBlurMask);
+  }
+
+  /**
+   * Marks the job of @param jobEntity done with @param blurAreas, and adds the task which saves its
+   * photo, or deletes it if it's not kept. The photo is kept if its user is logged in and has
+   * enough space, like "/get-blur-areas" does.
+   */
+  private static void finishJob(Entity jobEntity, List<List<Point>> blurAreas) {
+    Key jobKey = jobEntity.getKey();
+    String userId = DetectionJob.getUserId(jobEntity);
+    long size = BlobMetadata.getSize(jobEntity);
+
+    LoggedUser loggedUser = userId == null ? null : new LoggedUser(userId, null);
+    boolean spaceReserved = loggedUser != null && loggedUser.reserveSpace(size);
+    boolean committed = false;
+
+    // The task is added in the transaction which updates the job, so it's added if and only if the
+    // update is committed.
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      jobEntity = getForUpdate(transaction, jobKey);
+      if (!DetectionJob.isPending(jobEntity)) {
+        // Another attempt finished the job first.
+        return;
+      }
+
+      BlobKey blobKey = DetectionJob.getBlobKey(jobEntity);
+      Long photoId = null;
+      TaskOptions task;
+      if (spaceReserved) {
+        photoId = datastore.allocateIds("BlurImage", 1).getStart().getId();
+        task =
+            SavePhotoTaskServlet.createTask(
+                photoId,
+                userId,
+                blobKey,
+                size,
+                BlobMetadata.getContentType(jobEntity),
+                blurAreas,
+                DetectionJob.getDateCreated(jobEntity));
+      } else {
+        task = DeleteBlobTaskServlet.createTask(blobKey);
+      }
+
+      DetectionJob.setDone(jobEntity, blurAreas, photoId);
+      datastore.put(transaction, jobEntity);
+      queue.add(transaction, task);
+      transaction.commit();
+      committed = true;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+      // Give the space back if the photo won't be saved.
+      if (spaceReserved && !committed) {
+        loggedUser.releaseSpace(size);
+      }
+    }
+  }
+
+  /**
+   * Marks the job with key @param jobKey failed because of @param error, and deletes its photo,
+   * which nothing will save.
+   */
+  private static void failJob(Key jobKey, String error) {
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity jobEntity = getForUpdate(transaction, jobKey);
+      if (!DetectionJob.isPending(jobEntity)) {
+        return;
+      }
+
+      DetectionJob.setFailed(jobEntity, error);
+      datastore.put(transaction, jobEntity);
+      queue.add(transaction, DeleteBlobTaskServlet.createTask(DetectionJob.getBlobKey(jobEntity)));
+      transaction.commit();
+      failedJobs.increment();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Returns the job with key @param jobKey, read in @param transaction. */
+  private static Entity getForUpdate(Transaction transaction, Key jobKey) {
+    try {
+      return datastore.get(transaction, jobKey);
+    } catch (EntityNotFoundException e) {
+      throw new IllegalStateException("Detection job " + jobKey.getName() + " was deleted.", e);
+    }
+  }
+
+  private static ExecutorService createExecutor() {
+    if (!"executor".equals(System.getProperty("photoblur.jobs.runner"))) {
+      return null;
+    }
+    return Executors.newFixedThreadPool(
+        Integer.getInteger("photoblur.jobs.executorThreads", 4),
+        ThreadManager.backgroundThreadFactory());
+  }
+}
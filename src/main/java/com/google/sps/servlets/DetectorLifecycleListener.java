@@ -0,0 +1,33 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.BlurAreaDetectors;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/** Releases the shared BlurAreaDetector when the instance shuts down. */
+@WebListener
+public class DetectorLifecycleListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {}
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    BlurAreaDetectors.closeDetector();
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/** Deletes the entities which outlived their TTL, for the cleanup cron jobs. */
+final class ExpiredEntities {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  // Number of entities deleted by one request.
+  private static final int BATCH_SIZE = 500;
+
+  private ExpiredEntities() {}
+
+  /**
+   * Deletes up to BATCH_SIZE entities of kind @param kind whose "dateCreated" is more than @param
+   * ttlMillis ago. If there may be more of them, adds a task posting to @param path to the default
+   * queue, which calls this again.
+   */
+  static void deleteBatch(String kind, long ttlMillis, String path) {
+    List<Key> keys = findBatch(kind, ttlMillis);
+    datastore.delete(keys);
+    enqueueNextBatch(keys, path);
+  }
+
+  /**
+   * Returns the keys of up to BATCH_SIZE entities of kind @param kind whose "dateCreated" is more
+   * than @param ttlMillis ago.
+   */
+  static List<Key> findBatch(String kind, long ttlMillis) {
+    Date cutoff = new Date(System.currentTimeMillis() - ttlMillis);
+    Query query =
+        new Query(kind)
+            .setFilter(new FilterPredicate("dateCreated", FilterOperator.LESS_THAN, cutoff))
+            .setKeysOnly();
+
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withLimit(BATCH_SIZE))) {
+      keys.add(entity.getKey());
+    }
+    return keys;
+  }
+
+  /**
+   * Adds a task posting to @param path to the default queue if @param keys, the batch just
+   * processed, is full, because there may be more entities after it.
+   */
+  static void enqueueNextBatch(List<Key> keys, String path) {
+    if (keys.size() == BATCH_SIZE) {
+      QueueFactory.getDefaultQueue()
+          .add(TaskOptions.Builder.withUrl(path).method(TaskOptions.Method.POST));
+    }
+  }
+}
@@ -0,0 +1,286 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.gson.Gson;
+import com.google.sps.data.BlobMetadata;
+import com.google.sps.data.BlobReader;
+import com.google.sps.data.BlurAreaDetector;
+import com.google.sps.data.BlurAreaDetectors;
+import com.google.sps.data.Histogram;
+import com.google.sps.data.LoggedUser;
+import com.google.sps.data.Metrics;
+import com.google.sps.data.ParallelTasks;
+import com.google.sps.data.User;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that finds the blur areas of several photos uploaded together, like an album. Unlike
+ * sending every photo to "/get-blur-areas", the photos are read from Blobstore at the same time,
+ * sent to the detector as one batch, and the user's space is reserved once for all of them.
+ */
+@WebServlet("/get-blur-areas-batch")
+public class GetBlurAreasBatchServlet extends HttpServlet {
+
+  private static final AsyncDatastoreService datastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+  private static final Queue queue = QueueFactory.getDefaultQueue();
+
+  // Maximum number of photos of one request, which is the most the Vision API annotates in one
+  // call.
+  private static final int MAX_IMAGES = 16;
+
+  private static final Gson gson = new Gson();
+
+  private static final LongAdder requests =
+      Metrics.counter("get_blur_areas_batch_requests_total", "Requests to /get-blur-areas-batch.");
+  private static final LongAdder images =
+      Metrics.counter("get_blur_areas_batch_images_total", "Images sent to /get-blur-areas-batch.");
+  private static final Histogram requestLatency =
+      Metrics.latency(
+          "get_blur_areas_batch_seconds", "Time to handle a request to /get-blur-areas-batch.");
+  private static final Histogram blobFetchLatency =
+      Metrics.latency(
+          "get_blur_areas_batch_blob_fetch_seconds",
+          "Time to read all the images of a batch from Blobstore.");
+  private static final Histogram detectLatency =
+      Metrics.latency(
+          "get_blur_areas_batch_detect_seconds",
+          "Time to find the blur areas of all the images of a batch.");
+
+  // Finds the parts to blur. Shared by all requests to this instance.
+  private BlurAreaDetector detector;
+
+  @Override
+  public void init() throws ServletException {
+    try {
+      detector = BlurAreaDetectors.getDetector();
+    } catch (IOException e) {
+      throw new ServletException("Could not create the blur area detector.", e);
+    }
+  }
+
+  /**
+   * Method that handles the POST requests to "/get-blur-areas-batch" path, forwarded by Blobstore
+   * with the files uploaded as "image", at most MAX_IMAGES of them. The parts to blur are chosen
+   * like for "/get-blur-areas". Responds with a JSON array holding an object for every file, in
+   * upload order, with its "fileName" and either its "blurAreas" or the "error" which kept it from
+   * being detected. If the user is logged in and has space for all the photos, they are saved in
+   * the history. Else none of them is kept, like "/get-blur-areas" deletes a photo it doesn't save.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long startNanos = System.nanoTime();
+    requests.increment();
+    try {
+      findBlurAreas(request, response);
+    } finally {
+      Metrics.recordSince(requestLatency, startNanos);
+    }
+  }
+
+  /** Handles a request to "/get-blur-areas-batch" as described by doPost, which times it. */
+  private void findBlurAreas(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    List<BlobKey> blobKeys = blobstoreService.getUploads(request).get("image");
+    if (blobKeys == null || blobKeys.isEmpty()) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Please upload at least one image file.");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    if (blobKeys.size() > MAX_IMAGES) {
+      blobstoreService.delete(blobKeys.toArray(new BlobKey[0]));
+      response.setContentType("text/html;");
+      response.getWriter().println("Please upload at most " + MAX_IMAGES + " images at once.");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    images.add(blobKeys.size());
+
+    // Check every file with one datastore call. The files which can't be detected are deleted
+    // right away, and get an error instead of blur areas.
+    List<BlobInfo> blobInfos = BlobMetadata.loadBlobInfos(blobKeys);
+    List<ImageResult> results = new ArrayList<>();
+    List<BlobInfo> supportedBlobs = new ArrayList<>();
+    List<ImageResult> supportedResults = new ArrayList<>();
+    List<BlobKey> rejectedBlobKeys = new ArrayList<>();
+    for (int i = 0; i < blobKeys.size(); i++) {
+      BlobInfo blobInfo = blobInfos.get(i);
+      ImageResult result = new ImageResult(blobInfo == null ? null : blobInfo.getFilename());
+      results.add(result);
+
+      if (blobInfo == null || blobInfo.getSize() == 0) {
+        result.error = "Please upload an image file.";
+        rejectedBlobKeys.add(blobKeys.get(i));
+      } else if (!GetBlurAreasServlet.supportedTypes.contains(blobInfo.getContentType())) {
+        result.error =
+            "Image type <"
+                + blobInfo.getContentType()
+                + "> not supported. Types supported: "
+                + GetBlurAreasServlet.supportedTypes;
+        rejectedBlobKeys.add(blobKeys.get(i));
+      } else {
+        supportedBlobs.add(blobInfo);
+        supportedResults.add(result);
+      }
+    }
+    if (!rejectedBlobKeys.isEmpty()) {
+      blobstoreService.delete(rejectedBlobKeys.toArray(new BlobKey[0]));
+    }
+
+    if (!supportedBlobs.isEmpty()) {
+      findBlurAreas(request, supportedBlobs, supportedResults);
+    }
+
+    response.setContentType("application/json");
+    response.getWriter().println(gson.toJson(results));
+  }
+
+  /**
+   * Finds the blur areas of the images described by @param blobInfos and stores them in the
+   * matching elements of @param results. Then adds the tasks which save the images, or delete them
+   * if they are not kept.
+   */
+  private void findBlurAreas(
+      HttpServletRequest request, List<BlobInfo> blobInfos, List<ImageResult> results)
+      throws IOException {
+    long totalSize = 0;
+    for (BlobInfo blobInfo : blobInfos) {
+      totalSize += blobInfo.getSize();
+    }
+
+    // Reserve the space of all the photos at once, like "/get-blur-areas" does for one.
+    User user = User.getCurrentUser(request);
+    LoggedUser loggedUser = user.isLoggedIn() ? (LoggedUser) user : null;
+    boolean spaceReserved = loggedUser != null && loggedUser.reserveSpace(totalSize);
+
+    // Choose the photos' ids while the blur areas are found.
+    Future<KeyRange> photoIdsFuture = null;
+    if (spaceReserved) {
+      photoIdsFuture = datastore.allocateIds("BlurImage", blobInfos.size());
+    }
+
+    boolean tasksAdded = false;
+    try {
+      List<List<List<Point>>> blurAreas = detect(request, blobInfos);
+
+      List<TaskOptions> tasks = new ArrayList<>();
+      long firstPhotoId = spaceReserved ? getResult(photoIdsFuture).getStart().getId() : 0;
+      Date dateCreated = new Date();
+      for (int i = 0; i < blobInfos.size(); i++) {
+        results.get(i).blurAreas = blurAreas.get(i);
+        if (spaceReserved) {
+          tasks.add(
+              SavePhotoTaskServlet.createTask(
+                  firstPhotoId + i,
+                  loggedUser.getId(),
+                  blobInfos.get(i),
+                  blurAreas.get(i),
+                  dateCreated));
+        } else {
+          tasks.add(DeleteBlobTaskServlet.createTask(blobInfos.get(i).getBlobKey()));
+        }
+      }
+
+      // One call adds the tasks of all the photos.
+      queue.add(tasks);
+      tasksAdded = true;
+    } finally {
+      // Give the space back if anything failed before the photos' tasks were added.
+      if (spaceReserved && !tasksAdded) {
+        loggedUser.releaseSpace(totalSize);
+      }
+    }
+  }
+
+  /**
+   * Reads the images described by @param blobInfos at the same time and returns the blur areas the
+   * detector finds in them, as one batch, in the same order.
+   */
+  private List<List<List<Point>>> detect(HttpServletRequest request, List<BlobInfo> blobInfos)
+      throws IOException {
+    int partsToBlurMask = GetBlurAreasServlet.getPartsToBlurMask(request);
+    if (partsToBlurMask == 0) {
+      List<List<List<Point>>> blurAreas = new ArrayList<>();
+      for (int i = 0; i < blobInfos.size(); i++) {
+        blurAreas.add(new ArrayList<List<Point>>());
+      }
+      return blurAreas;
+    }
+
+    long fetchStartNanos = System.nanoTime();
+    List<Callable<byte[]>> reads = new ArrayList<>();
+    for (BlobInfo blobInfo : blobInfos) {
+      reads.add(() -> BlobReader.readBlob(blobInfo.getBlobKey(), blobInfo.getSize()));
+    }
+    List<byte[]> imageBytes = ParallelTasks.invokeAll(reads);
+    Metrics.recordSince(blobFetchLatency, fetchStartNanos);
+
+    long detectStartNanos = System.nanoTime();
+    List<List<List<Point>>> blurAreas = detector.getBlurAreasBatch(imageBytes, partsToBlurMask);
+    Metrics.recordSince(detectLatency, detectStartNanos);
+    return blurAreas;
+  }
+
+  /** Waits for @param future and returns its result, wrapping its failure in an IOException. */
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /** The result of one uploaded file, sent as JSON. */
+  private static final class ImageResult {
+    private final String fileName;
+    // Exactly one of these is set once the request is handled. Gson skips the other one.
+    private List<List<Point>> blurAreas;
+    private String error;
+
+    private ImageResult(String fileName) {
+      this.fileName = fileName;
+    }
+  }
+}
@@ -19,37 +19,41 @@ import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.cloud.vision.v1.AnnotateImageRequest;
-import com.google.cloud.vision.v1.AnnotateImageRequest.Builder;
-import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
-import com.google.cloud.vision.v1.BoundingPoly;
-import com.google.cloud.vision.v1.EntityAnnotation;
-import com.google.cloud.vision.v1.FaceAnnotation;
-import com.google.cloud.vision.v1.Feature;
-import com.google.cloud.vision.v1.Image;
-import com.google.cloud.vision.v1.ImageAnnotatorClient;
-import com.google.cloud.vision.v1.LocalizedObjectAnnotation;
-import com.google.cloud.vision.v1.NormalizedVertex;
-import com.google.cloud.vision.v1.Vertex;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.gson.Gson;
-import com.google.protobuf.ByteString;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.BlobReader;
+import com.google.sps.data.BlurAreaCodec;
+import com.google.sps.data.BlurAreaDetector;
+import com.google.sps.data.BlurAreaDetectors;
+import com.google.sps.data.DetectionJob;
+import com.google.sps.data.Histogram;
 import com.google.sps.data.LoggedUser;
+import com.google.sps.data.Metrics;
 import com.google.sps.data.User;
 import java.awt.Point;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import javax.imageio.ImageIO;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -58,28 +62,94 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/get-blur-areas")
 public class GetBlurAreasServlet extends HttpServlet {
 
+  private static final AsyncDatastoreService datastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+  private static final Queue queue = QueueFactory.getDefaultQueue();
+
   // Image types that are supported by our application.
-  private static final ArrayList<String> supportedTypes =
-      new ArrayList<>(Arrays.asList("image/jpeg", "image/png"));
+  static final List<String> supportedTypes =
+      Collections.unmodifiableList(Arrays.asList("image/jpeg", "image/png"));
+
+  private static final Type BLUR_AREAS_TYPE = new TypeToken<List<List<Point>>>() {}.getType();
+
+  // Gson instances are immutable and thread-safe, so all requests share this one.
+  private static final Gson gson = new Gson();
+
+  private static final Logger logger = Logger.getLogger(GetBlurAreasServlet.class.getName());
+
+  private static final LongAdder requests =
+      Metrics.counter("get_blur_areas_requests_total", "Requests to /get-blur-areas.");
+  private static final LongAdder asyncRequests =
+      Metrics.counter(
+          "get_blur_areas_async_total",
+          "Requests to /get-blur-areas which started a detection job.");
+  private static final LongAdder rejectedRequests =
+      Metrics.counter(
+          "get_blur_areas_rejected_total",
+          "Requests to /get-blur-areas without a supported image.");
+  private static final LongAdder taskErrors =
+      Metrics.counter(
+          "get_blur_areas_task_errors_total",
+          "Tasks saving or deleting an uploaded image which could not be added.");
+  private static final Histogram imageSizes =
+      Metrics.size("get_blur_areas_image_bytes", "Size of the images sent to /get-blur-areas.");
+  private static final Histogram requestLatency =
+      Metrics.latency("get_blur_areas_seconds", "Time to handle a request to /get-blur-areas.");
+  private static final Histogram blobFetchLatency =
+      Metrics.latency(
+          "get_blur_areas_blob_fetch_seconds", "Time to read an uploaded image from Blobstore.");
+  private static final Histogram detectLatency =
+      Metrics.latency(
+          "get_blur_areas_detect_seconds", "Time to find the blur areas of an uploaded image.");
+  private static final Histogram respondLatency =
+      Metrics.latency(
+          "get_blur_areas_respond_seconds",
+          "Time to write the response and wait for the task saving or deleting the image.");
+
+  // Finds the parts to blur. Shared by all requests to this instance.
+  private BlurAreaDetector detector;
 
-  // Bitmask for the features we can blur.
-  private static final Integer FACE_BLUR_MASK = 1 << 0;
-  private static final Integer PLATE_BLUR_MASK = 1 << 1;
-  private static final Integer LOGO_BLUR_MASK = 1 << 2;
+  @Override
+  public void init() throws ServletException {
+    try {
+      detector = BlurAreaDetectors.getDetector();
+    } catch (IOException e) {
+      throw new ServletException("Could not create the blur area detector.", e);
+    }
+  }
 
   /**
    * This method handles the POST requests to "/get-blur-areas". Receives a BlobKey parameter which
    * represents the Blobstore location of an image. Responds with a JSON ArrayList of rectangles. A
    * rectangle is represented by a List of points. A point contains two properties, its coordinates:
-   * x and y.
+   * x and y. If parameter "format" is "packed", responds with the rectangles packed by
+   * BlurAreaCodec instead. If parameter "mode" is "async", responds right away with status 202 and
+   * the JSON of a pending DetectionJob, whose result is then read from "/blur-areas-job". If the
+   * user is logged in and has space for the photo, it is saved in the history. Else it is deleted,
+   * like "/get-blur-areas-batch" and detection jobs do.
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long startNanos = System.nanoTime();
+    requests.increment();
+    try {
+      findBlurAreas(request, response);
+    } finally {
+      Metrics.recordSince(requestLatency, startNanos);
+    }
+  }
+
+  /** Handles a request to "/get-blur-areas" as described by doPost, which times it. */
+  private void findBlurAreas(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     // Get the BlobKey that points to the image uploaded by the user.
     BlobKey blobKey = getBlobKey(request, "image");
 
     // User didn't upload a file, so render an error message.
     if (blobKey == null) {
+      rejectedRequests.increment();
       response.setContentType("text/html;");
       response.getWriter().println("Please upload an image file.");
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -91,6 +161,7 @@ public class GetBlurAreasServlet extends HttpServlet {
     String fileType = blobInfo.getContentType();
     if (!supportedTypes.contains(fileType)) {
       deleteFile(blobKey);
+      rejectedRequests.increment();
 
       response.setContentType("text/html;");
       response.getWriter().println("Image type <" + fileType + "> not supported.");
@@ -99,15 +170,98 @@ public class GetBlurAreasServlet extends HttpServlet {
       return;
     }
 
-    // We need this to convert Java objects to JSON strings.
-    Gson gson = new Gson();
+    int partsToBlurMask = getPartsToBlurMask(request);
+
+    // In async mode a detection job finds the blur areas and saves the photo, so we only respond
+    // with the job's id.
+    if ("async".equals(request.getParameter("mode"))) {
+      startDetectionJob(request, response, blobInfo, partsToBlurMask);
+      return;
+    }
+
+    // Get the image the user uploaded as bytes. The detector wraps this buffer without copying
+    // it, so it must not be modified afterwards.
+    long fetchStartNanos = System.nanoTime();
+    byte[] imageBytes = BlobReader.readBlob(blobKey, blobInfo.getSize());
+    Metrics.recordSince(blobFetchLatency, fetchStartNanos);
+    imageSizes.record(imageBytes.length);
+
+    // If the user is logged in, we will save the photo in our database. Reserve the space for it
+    // first, so parallel uploads of the same user can't exceed the limit together. If the photo
+    // doesn't fit, we delete it like for a user who is not logged in.
+    User user = User.getCurrentUser(request);
+    LoggedUser loggedUser = user.isLoggedIn() ? (LoggedUser) user : null;
+    boolean spaceReserved = loggedUser != null && loggedUser.reserveSpace(blobInfo.getSize());
+
+    // Choose the photo's id while the blur areas are found.
+    Future<KeyRange> photoIdFuture = null;
+    if (spaceReserved) {
+      photoIdFuture = datastore.allocateIds("BlurImage", 1);
+    }
 
-    // Get the image the user uploaded as bytes.
-    byte[] imageBytes = getBlobBytes(blobKey);
+    // The photo is saved, or deleted if it's not kept, by a task, so we don't wait for it before
+    // responding. Adding the task is asynchronous too.
+    Future<TaskHandle> persistenceFuture = null;
+
+    List<List<Point>> blurAreas;
+    try {
+      // If the user selected at least one part to blur, ask the detector for the areas. Else
+      // respond with an empty list.
+      if (partsToBlurMask != 0) {
+        long detectStartNanos = System.nanoTime();
+        blurAreas = detector.getBlurAreas(imageBytes, partsToBlurMask);
+        Metrics.recordSince(detectLatency, detectStartNanos);
+      } else {
+        blurAreas = new ArrayList<List<Point>>();
+      }
+
+      if (spaceReserved) {
+        long photoId = getResult(photoIdFuture).getStart().getId();
+        TaskOptions task =
+            SavePhotoTaskServlet.createTask(
+                photoId, loggedUser.getId(), blobInfo, blurAreas, new Date());
+        persistenceFuture = queue.addAsync(task);
+      }
+    } finally {
+      // Give the space back if anything failed before the photo's task was added.
+      if (spaceReserved && persistenceFuture == null) {
+        loggedUser.releaseSpace(blobInfo.getSize());
+      }
+    }
 
+    // If the photo is not saved, we delete it.
+    if (!spaceReserved) {
+      persistenceFuture = queue.addAsync(DeleteBlobTaskServlet.createTask(blobKey));
+    }
+
+    long respondStartNanos = System.nanoTime();
+    writeBlurAreas(request, response, blurAreas);
+
+    // Make sure the task was added. Else give the space back, or delete the photo right away.
+    if (persistenceFuture != null) {
+      try {
+        getResult(persistenceFuture);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not add the task for the photo.", e);
+        taskErrors.increment();
+        if (spaceReserved) {
+          loggedUser.releaseSpace(blobInfo.getSize());
+        } else {
+          deleteFile(blobKey);
+        }
+      }
+    }
+    Metrics.recordSince(respondLatency, respondStartNanos);
+  }
+
+  /**
+   * Returns the bitmask of the parts to blur chosen with the "face-blur", "plate-blur" and
+   * "logo-blur" parameters of @param request.
+   */
+  static int getPartsToBlurMask(HttpServletRequest request) {
     // Create a bitmask representing which parts of the image to blur in getBlurAreas method.
     // Example: FACE_BLUR_MASK | LOGO_BLUR_MASK = 101 means to blur faces, logos but not plates.
-    Integer partsToBlurMask = 0;
+    int partsToBlurMask = 0;
 
     String faceBlur = request.getParameter("face-blur");
     String plateBlur = request.getParameter("plate-blur");
@@ -115,152 +269,81 @@ public class GetBlurAreasServlet extends HttpServlet {
 
     // If the user checked a part to blur, add it to our bitmask.
     if (faceBlur != null && faceBlur.equals("on")) {
-      partsToBlurMask |= FACE_BLUR_MASK;
+      partsToBlurMask |= BlurAreaDetector.FACE_BLUR_MASK;
     }
     if (plateBlur != null && plateBlur.equals("on")) {
-      partsToBlurMask |= PLATE_BLUR_MASK;
+      partsToBlurMask |= BlurAreaDetector.PLATE_BLUR_MASK;
     }
     if (logoBlur != null && logoBlur.equals("on")) {
-      partsToBlurMask |= LOGO_BLUR_MASK;
-    }
-
-    ArrayList<List<Point>> blurAreas;
-    // If the user selected at least one part to blur, call getBlurAreas. Else respond with an
-    // empty list.
-    if (partsToBlurMask != 0) {
-      blurAreas = getBlurAreas(imageBytes, partsToBlurMask);
-    } else {
-      blurAreas = new ArrayList<List<Point>>();
+      partsToBlurMask |= BlurAreaDetector.LOGO_BLUR_MASK;
     }
+    return partsToBlurMask;
+  }
 
-    // If the user is logged in, we will save the photo in our database.
-    User user = User.getCurrentUser();
-    if (user.isLoggedIn()) {
-      LoggedUser loggedUser = (LoggedUser) user;
-
-      // Total storage space used by the user, including the new uploaded photo.
-      long totalSpace = loggedUser.getUsedSpace() + blobInfo.getSize();
-
-      // If the total space doesn't exceed the limit, store the photo in database. If it exceeds, we
-      // simply ignore it for now.
-      if (totalSpace <= LoggedUser.USER_STORAGE_LIMIT) {
-        // Create the imageEntity.
-        Entity imageEntity = new Entity("BlurImage");
-        imageEntity.setProperty("userId", loggedUser.getId());
-        imageEntity.setProperty("blobKey", blobKey);
-        imageEntity.setProperty("jsonBlurRectangles", gson.toJson(blurAreas));
-        // new Date() returns the current date object.
-        imageEntity.setProperty("dateCreated", new Date());
-
-        // Save imageEntity in datastore.
-        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-        datastore.put(imageEntity);
-
-        loggedUser.setUsedSpace(totalSpace);
-      }
-    }
-    // If the user is not logged in, we delete the photo.
-    else {
-      deleteFile(blobKey);
+  /**
+   * Starts a detection job which finds the parts of @param partsToBlurMask in the image described
+   * by @param blobInfo, and responds with the job as JSON. The job's state is then read from
+   * "/blur-areas-job".
+   */
+  private void startDetectionJob(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      BlobInfo blobInfo,
+      int partsToBlurMask)
+      throws IOException {
+    User user = User.getCurrentUser(request);
+    String userId = user.isLoggedIn() ? ((LoggedUser) user).getId() : null;
+    Entity jobEntity = DetectionJob.createEntity(userId, blobInfo, partsToBlurMask);
+    getResult(datastore.put(jobEntity));
+
+    try {
+      DetectionJobTaskServlet.startJob(jobEntity.getKey().getName());
+    } catch (RuntimeException e) {
+      // Nothing will run the job, so nothing would delete the photo.
+      datastore.delete(jobEntity.getKey());
+      deleteFile(blobInfo.getBlobKey());
+      throw e;
     }
+    asyncRequests.increment();
 
-    // Convert the rectangles to JSON.
-    String jsonResponse = gson.toJson(blurAreas);
-
-    // Send the JSON back as the response.
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
     response.setContentType("application/json");
-    response.getWriter().println(jsonResponse);
+    response.getWriter().println(gson.toJson(DetectionJob.fromEntity(jobEntity)));
   }
 
   /**
-   * Uses the Google Cloud Vision API to find parts to blur in the image represented by the binary
-   * data stored in @param imageBytes
-   *
-   * @return an ArrayList of bounding rectangles representing parts to blur. Rectangles are
-   *     represented by a list of points. There is no guaranteed order of the points.
+   * Writes @param blurAreas as the response, packed if parameter "format" of @param request is
+   * "packed" and as JSON otherwise.
    */
-  private ArrayList<List<Point>> getBlurAreas(byte[] imageBytes, Integer partsToBlurMask)
+  private void writeBlurAreas(
+      HttpServletRequest request, HttpServletResponse response, List<List<Point>> blurAreas)
       throws IOException {
-    // This is the array that we will return.
-    ArrayList<List<Point>> rectanglesToBlur = new ArrayList<>();
-
-    // Convert bytes to an Image object.
-    ByteString byteString = ByteString.copyFrom(imageBytes);
-    Image image = Image.newBuilder().setContent(byteString).build();
-
-    // This will hold the image and the features we want to detect.
-    Builder requestBuilder = AnnotateImageRequest.newBuilder();
-
-    // Check which parts our bitmask contains and add the corresponding features to requestBuilder.
-    // setMaxResults(0) disables the maximum limit of features to return.
-    if ((partsToBlurMask & FACE_BLUR_MASK) != 0) {
-      Feature feature =
-          Feature.newBuilder().setType(Feature.Type.FACE_DETECTION).setMaxResults(0).build();
-      requestBuilder.addFeatures(feature);
-    }
-    if ((partsToBlurMask & PLATE_BLUR_MASK) != 0) {
-      Feature feature =
-          Feature.newBuilder().setType(Feature.Type.OBJECT_LOCALIZATION).setMaxResults(0).build();
-      requestBuilder.addFeatures(feature);
-    }
-    if ((partsToBlurMask & LOGO_BLUR_MASK) != 0) {
-      Feature feature =
-          Feature.newBuilder().setType(Feature.Type.LOGO_DETECTION).setMaxResults(0).build();
-      requestBuilder.addFeatures(feature);
+    // Send the rectangles packed if the client asked for it.
+    if ("packed".equals(request.getParameter("format"))) {
+      byte[] packed = BlurAreaCodec.encode(blurAreas);
+      response.setContentType("application/octet-stream");
+      response.setContentLength(packed.length);
+      response.getOutputStream().write(packed);
+      return;
     }
 
-    requestBuilder.setImage(image);
-
-    // Create an array of requests containing only ours to pass to the batchAnnotateImages function.
-    List<AnnotateImageRequest> requests = new ArrayList<>();
-    requests.add(requestBuilder.build());
-
-    // Annotate the image from our request. Skip if there is any internal error in the API.
-    try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
-      BatchAnnotateImagesResponse response = client.batchAnnotateImages(requests);
-      List<AnnotateImageResponse> responses = response.getResponsesList();
-
-      // We need this to get the width and height of the image.
-      BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
-
-      for (AnnotateImageResponse res : responses) {
-        // If there was any internal error in the Cloud Vision API, skip this response.
-        if (res.hasError()) {
-          System.out.println(res.getError());
-          continue;
-        }
-
-        // For each face detected add a rectangle represented by an array of points.
-        for (FaceAnnotation face : res.getFaceAnnotationsList()) {
-          rectanglesToBlur.add(getPoints(face.getFdBoundingPoly()));
-        }
-
-        // For each object detected add a rectangle represented by an array of points if it is a
-        // license plate.
-        for (LocalizedObjectAnnotation object : res.getLocalizedObjectAnnotationsList()) {
-          if (object.getName().equals("License plate")) {
-            ArrayList<Point> points = new ArrayList<>();
-            for (NormalizedVertex vertex : object.getBoundingPoly().getNormalizedVerticesList()) {
-              // Localized object bounding polys contain normalized vertices with coordinates in
-              // [0, 1] so we have to denormalize them.
-              Integer x = Math.round(vertex.getX() * bufferedImage.getWidth());
-              Integer y = Math.round(vertex.getY() * bufferedImage.getHeight());
-              points.add(new Point(x, y));
-            }
-            rectanglesToBlur.add(points);
-          }
-        }
-
-        // For each logo detected add a rectangle represented by an array of points.
-        for (EntityAnnotation logo : res.getLogoAnnotationsList()) {
-          rectanglesToBlur.add(getPoints(logo.getBoundingPoly()));
-        }
-      }
+    // Stream the rectangles as JSON straight to the response.
+    response.setContentType("application/json");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+    gson.toJson(blurAreas, BLUR_AREAS_TYPE, writer);
+    writer.flush();
+  }
 
-      client.close();
+  /** Waits for @param future and returns its result, wrapping its failure in an IOException. */
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
     }
-
-    return rectanglesToBlur;
   }
 
   /**
@@ -268,7 +351,6 @@ public class GetBlurAreasServlet extends HttpServlet {
    * upload a file.
    */
   private BlobKey getBlobKey(HttpServletRequest request, String formInputElementName) {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get(formInputElementName);
 
@@ -290,51 +372,8 @@ public class GetBlurAreasServlet extends HttpServlet {
     return blobKey;
   }
 
-  /**
-   * Blobstore stores files as binary data. This function retrieves the image represented by the
-   * binary data stored at the BlobKey parameter.
-   */
-  private byte[] getBlobBytes(BlobKey blobKey) throws IOException {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
-
-    int fetchSize = BlobstoreService.MAX_BLOB_FETCH_SIZE;
-    long currentByteIndex = 0;
-    byte[] b;
-    do {
-      // End index is inclusive, so we have to subtract 1 to get fetchSize bytes.
-      b = blobstoreService.fetchData(blobKey, currentByteIndex, currentByteIndex + fetchSize - 1);
-      outputBytes.write(b);
-
-      currentByteIndex += fetchSize;
-    }
-    // If we read fewer bytes than we requested, then we reached the end.
-    while (b.length == fetchSize);
-
-    return outputBytes.toByteArray();
-  }
-
-  private Boolean isImageSupported(BlobKey blobKey) {
-    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-    return supportedTypes.contains(blobInfo.getContentType());
-  }
-
-  private String getFileType(BlobKey blobKey) {
-    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-    return blobInfo.getContentType();
-  }
-
   /** Deletes a file from the blobstore */
   private void deleteFile(BlobKey blobKey) {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     blobstoreService.delete(blobKey);
   }
-
-  /** Returns an ArrayList containing a BoundingPoly's points. */
-  private ArrayList<Point> getPoints(BoundingPoly poly) {
-    ArrayList<Point> points = new ArrayList<>();
-    for (Vertex vertex : poly.getVerticesList())
-      points.add(new Point(vertex.getX(), vertex.getY()));
-    return points;
-  }
 }
@@ -0,0 +1,52 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.Metrics;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the request counts and stage latencies of this instance. */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  private static final UserService userService = UserServiceFactory.getUserService();
+
+  /**
+   * Method that handles the GET requests to "/metrics" path. Returns the metrics in the Prometheus
+   * text format, with the p50, p95 and p99 of every latency and size. Only admins of the
+   * application can see them.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Only admins can see the metrics!");
+      response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    response.setCharacterEncoding("UTF-8");
+    response.setContentType("text/plain; version=0.0.4");
+    PrintWriter writer = response.getWriter();
+    Metrics.write(writer);
+    writer.flush();
+  }
+}
@@ -17,6 +17,7 @@ package com.google.sps.servlets;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.blobstore.RangeFormatException;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -26,10 +27,17 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/photo")
 public class PhotoServlet extends HttpServlet {
 
+  private static final BlobstoreService blobstoreService =
+      BlobstoreServiceFactory.getBlobstoreService();
+
+  // A blob never changes, so browsers and caches can keep it for a year without asking again.
+  private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
   /**
    * Method that handles the GET requests to "/photo" path. Parameter "blob-key" specifies the
    * blobKey of the photo requested. Responds with the photo at the blobstore location pointed by
-   * "blob-key".
+   * "blob-key", or with the bytes asked for by a well-formed "Range" header. The ETag is the blob
+   * key, so a request with a matching "If-None-Match" header gets a 304 response without the photo.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -42,8 +50,49 @@ public class PhotoServlet extends HttpServlet {
       return;
     }
 
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+    String etag = "\"" + blobKeyString + "\"";
+    response.setHeader("Cache-Control", CACHE_CONTROL);
+    response.setHeader("ETag", etag);
+    response.setHeader("Accept-Ranges", "bytes");
+
+    if (matchesEtag(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
     BlobKey blobKey = new BlobKey(blobKeyString);
+    String range = request.getHeader("Range");
+    if (range != null) {
+      try {
+        blobstoreService.serve(blobKey, range, response);
+        return;
+      } catch (RangeFormatException e) {
+        // Like the HTTP specification says, a malformed "Range" header is ignored.
+      }
+    }
     blobstoreService.serve(blobKey, response);
   }
+
+  /**
+   * Returns true if @param ifNoneMatch, the value of an "If-None-Match" header, contains @param
+   * etag. Weak ETags match too, like the HTTP specification says for GET requests. "*" is not
+   * honored, because it would answer 304 for a blob which doesn't exist, and browsers don't send it
+   * on GET requests.
+   */
+  static boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
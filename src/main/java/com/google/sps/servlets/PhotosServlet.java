@@ -16,13 +16,24 @@ package com.google.sps.servlets;
 
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.BlobMetadata;
+import com.google.sps.data.BlurAreaCodec;
 import com.google.sps.data.BlurImage;
+import com.google.sps.data.Histogram;
 import com.google.sps.data.LoggedUser;
+import com.google.sps.data.Metrics;
+import com.google.sps.data.Thumbnail;
 import com.google.sps.data.User;
+import java.awt.Point;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -31,15 +42,59 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/photos")
 public class PhotosServlet extends HttpServlet {
 
+  // Number of photos returned when the request doesn't specify max-photos.
+  private static final int DEFAULT_PAGE_SIZE = 20;
+
+  // Maximum number of photos returned by one request, so a request takes the same time no matter
+  // how many photos the user has.
+  private static final int MAX_PAGE_SIZE = 50;
+
+  // Maximum number of photos deleted by one request. Every photo has a few entities, and the
+  // datastore deletes at most 500 entities in one call.
+  private static final int MAX_DELETE_IDS = 100;
+
+  private static final Gson gson = new Gson();
+
+  private static final LongAdder getRequests =
+      Metrics.counter("photos_get_requests_total", "GET requests to /photos.");
+  private static final LongAdder deleteRequests =
+      Metrics.counter("photos_delete_requests_total", "DELETE requests to /photos.");
+  private static final Histogram getLatency =
+      Metrics.latency("photos_get_seconds", "Time to handle a GET request to /photos.");
+  private static final Histogram blobMetadataLatency =
+      Metrics.latency(
+          "photos_blob_metadata_seconds",
+          "Time to load the missing blob sizes of a page of photos.");
+  private static final Histogram serializeLatency =
+      Metrics.latency("photos_serialize_seconds", "Time to write a page of photos as JSON.");
+  private static final Histogram deleteLatency =
+      Metrics.latency("photos_delete_seconds", "Time to handle a DELETE request to /photos.");
+
   /**
    * Method that handles the GET requests to "/photos" path. Parameter "max-photos" specifies the
-   * maximum number of photos to return. Returns a JSON array of BlurImages ordered by dateCreated
-   * descending.
+   * maximum number of photos to return, at most MAX_PAGE_SIZE. Optional parameter "page-token"
+   * specifies where the page starts, as returned by the previous request. If parameter "format" is
+   * "packed", the rectangles of a photo are sent as "packedBlurRectangles", packed by BlurAreaCodec
+   * and base64 encoded, instead of as the "blurRectangles" JSON array. Returns a JSON object with
+   * the array of BlurImages ordered by dateCreated descending as "photos", and the token of the
+   * next page as "next-page-token", which is missing for the last page.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long startNanos = System.nanoTime();
+    getRequests.increment();
+    try {
+      getPhotos(request, response);
+    } finally {
+      Metrics.recordSince(getLatency, startNanos);
+    }
+  }
+
+  /** Handles a GET request to "/photos" as described by doGet, which times it. */
+  private void getPhotos(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     // If the user is not logged in, send a redirect to the main page.
-    User user = User.getCurrentUser();
+    User user = User.getCurrentUser(request);
     if (!user.isLoggedIn()) {
       response.sendRedirect("/");
       return;
@@ -48,49 +103,93 @@ public class PhotosServlet extends HttpServlet {
 
     // Get the input from the request.
     String maxPhotosString = request.getParameter("max-photos");
+    String pageToken = request.getParameter("page-token");
+    boolean packed = "packed".equals(request.getParameter("format"));
 
-    // Convert the input to an int or Integer.MAX_VALUE.
+    // Convert the input to an int or DEFAULT_PAGE_SIZE, and limit it to MAX_PAGE_SIZE.
     int maxPhotos;
     try {
       maxPhotos = Integer.parseInt(maxPhotosString);
     } catch (NumberFormatException e) {
-      maxPhotos = Integer.MAX_VALUE;
+      maxPhotos = DEFAULT_PAGE_SIZE;
+    }
+    maxPhotos = Math.min(maxPhotos, MAX_PAGE_SIZE);
+
+    // Load a page of current user's photos from datastore ordered by date created.
+    QueryResultList<Entity> photoEntities;
+    try {
+      photoEntities = loggedUser.getBlurImageEntities(maxPhotos, pageToken);
+    } catch (IllegalArgumentException e) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Parameter page-token is invalid. Received:" + pageToken);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
     }
 
-    // Load current user's photos from datastore ordered by date created.
-    Iterable<Entity> photoEntities = loggedUser.getBlurImageEntities(maxPhotos);
+    // Photos saved before their blob's size was stored on them get it from one batch lookup.
+    long metadataStartNanos = System.nanoTime();
+    BlobMetadata.fillMissingProperties(photoEntities);
+    Metrics.recordSince(blobMetadataLatency, metadataStartNanos);
+
+    long serializeStartNanos = System.nanoTime();
 
-    // Store photos in an array.
-    ArrayList<BlurImage> photos = new ArrayList<>();
+    // Stream the page as JSON straight to the response, one photo at a time, instead of building
+    // the whole response in memory first.
+    response.setCharacterEncoding("UTF-8");
+    response.setContentType("application/json;");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+
+    writer.beginObject();
+    writer.name("photos");
+    writer.beginArray();
     String userId = loggedUser.getId();
     for (Entity entity : photoEntities) {
       long id = entity.getKey().getId();
       BlobKey blobKey = (BlobKey) entity.getProperty("blobKey");
-      String jsonBlurRectangles = (String) entity.getProperty("jsonBlurRectangles");
+      List<List<Point>> blurRectangles = BlurAreaCodec.readFromEntity(entity);
       Date dateCreated = (Date) entity.getProperty("dateCreated");
+      long size = BlobMetadata.getSize(entity);
 
-      photos.add(new BlurImage(id, userId, blobKey, jsonBlurRectangles, dateCreated));
-    }
+      List<Thumbnail> thumbnails = Thumbnail.getThumbnails(entity);
 
-    // Convert the photos array to JSON.
-    Gson gson = new Gson();
-    String json = gson.toJson(photos);
+      BlurImage photo =
+          new BlurImage(id, userId, blobKey, blurRectangles, packed, dateCreated, size, thumbnails);
+      gson.toJson(photo, BlurImage.class, writer);
+    }
+    writer.endArray();
 
-    // Send the JSON as the response.
-    response.setCharacterEncoding("UTF-8");
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    // A page with fewer photos than asked for is the last one, so it has no next page token.
+    if (maxPhotos > 0 && photoEntities.size() == maxPhotos) {
+      writer.name("next-page-token").value(photoEntities.getCursor().toWebSafeString());
+    }
+    writer.endObject();
+    writer.flush();
+    Metrics.recordSince(serializeLatency, serializeStartNanos);
   }
 
   /**
-   * Method to handle the DELETE requests to "/photos" path. Receives "photo-id" parameter. Deletes
-   * a photo from the database.
+   * Method to handle the DELETE requests to "/photos" path. Receives one or more "photo-id"
+   * parameters, at most MAX_DELETE_IDS. Deletes the photos from the database, all at once. If the
+   * user doesn't have some of the photos, the others are still deleted, and the response is an
+   * error listing the missing ids.
    */
   @Override
   public void doDelete(HttpServletRequest request, HttpServletResponse response)
       throws IOException {
+    long startNanos = System.nanoTime();
+    deleteRequests.increment();
+    try {
+      deletePhotos(request, response);
+    } finally {
+      Metrics.recordSince(deleteLatency, startNanos);
+    }
+  }
+
+  /** Handles a DELETE request to "/photos" as described by doDelete, which times it. */
+  private void deletePhotos(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     // If the user is not logged in, send an error message.
-    User user = User.getCurrentUser();
+    User user = User.getCurrentUser(request);
     if (!user.isLoggedIn()) {
       response.setContentType("text/html;");
       response.getWriter().println("You must be logged in to delete photos!");
@@ -100,24 +199,38 @@ public class PhotosServlet extends HttpServlet {
     LoggedUser loggedUser = (LoggedUser) user;
 
     // Get the input from the request.
-    String idString = request.getParameter("photo-id");
+    String[] idStrings = request.getParameterValues("photo-id");
 
-    // Convert the input to a long or show error if the parameter is not a number.
-    long id;
-    try {
-      id = Long.parseLong(idString);
-    } catch (NumberFormatException e) {
+    if (idStrings == null || idStrings.length > MAX_DELETE_IDS) {
       response.setContentType("text/html;");
-      response.getWriter().println("Parameter photo-id must be a number. Received:" + idString);
+      response
+          .getWriter()
+          .println("Please provide between 1 and " + MAX_DELETE_IDS + " photo-id parameters.");
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
 
-    // Delete the photo.
-    if (!loggedUser.deletePhoto(id)) {
-      // If the user doesn't have a photo with id, show a message.
+    // Convert the input to longs or show error if a parameter is not a number.
+    List<Long> ids = new ArrayList<>();
+    for (String idString : idStrings) {
+      try {
+        ids.add(Long.parseLong(idString));
+      } catch (NumberFormatException e) {
+        response.setContentType("text/html;");
+        response.getWriter().println("Parameter photo-id must be a number. Received:" + idString);
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+    }
+
+    // Delete the photos.
+    List<Long> deletedIds = loggedUser.deletePhotos(ids);
+    ids.removeAll(deletedIds);
+    if (!ids.isEmpty()) {
+      // If the user doesn't have some of the photos, show a message.
       response.setContentType("text/html;");
-      response.getWriter().println("The current user has no photo with id: " + idString);
+      String missingIds = ids.stream().map(String::valueOf).collect(Collectors.joining(", "));
+      response.getWriter().println("The current user has no photo with id: " + missingIds);
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
     }
   }
@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.BlobMetadata;
+import com.google.sps.data.BlobReader;
+import com.google.sps.data.BlurAreaCodec;
+import com.google.sps.data.BlurRenderer;
+import com.google.sps.data.LoggedUser;
+import com.google.sps.data.User;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that blurs the user's photos on the server. */
+@WebServlet("/render-blurred")
+public class RenderBlurredServlet extends HttpServlet {
+
+  /**
+   * Method that handles the GET requests to "/render-blurred" path. Parameter "photo-id" specifies
+   * the photo to blur and optional parameter "blur-radius" how much to blur it. Responds with the
+   * photo with its blur areas blurred, encoded in the photo's original format.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // If the user is not logged in, send an error message.
+    User user = User.getCurrentUser(request);
+    if (!user.isLoggedIn()) {
+      response.setContentType("text/html;");
+      response.getWriter().println("You must be logged in to render photos!");
+      response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    LoggedUser loggedUser = (LoggedUser) user;
+
+    // Get the input from the request.
+    String idString = request.getParameter("photo-id");
+
+    // Convert the input to a long or show error if the parameter is not a number.
+    long id;
+    try {
+      id = Long.parseLong(idString);
+    } catch (NumberFormatException e) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Parameter photo-id must be a number. Received:" + idString);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    Entity photoEntity = loggedUser.getBlurImageEntity(id);
+    if (photoEntity == null) {
+      // If the user doesn't have a photo with id, show a message.
+      response.setContentType("text/html;");
+      response.getWriter().println("The current user has no photo with id: " + idString);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    // Load the original photo and the areas to blur.
+    BlobKey blobKey = (BlobKey) photoEntity.getProperty("blobKey");
+    BlobMetadata.fillMissingProperties(Collections.singletonList(photoEntity));
+    if (!BlobMetadata.hasProperties(photoEntity) || BlobMetadata.getSize(photoEntity) == 0) {
+      // The photo's blob doesn't exist anymore. Earlier backfills stored size 0 for such photos.
+      response.setContentType("text/html;");
+      response.getWriter().println("The file of the photo with id " + idString + " is missing.");
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    String contentType = BlobMetadata.getContentType(photoEntity);
+    byte[] imageBytes = BlobReader.readBlob(blobKey, BlobMetadata.getSize(photoEntity));
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+    if (image == null) {
+      // The stored photo is corrupt or in a format ImageIO can't decode.
+      response.setContentType("text/html;");
+      response.getWriter().println("The photo with id " + idString + " can't be decoded.");
+      response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+      return;
+    }
+
+    List<List<Point>> blurAreas = BlurAreaCodec.readFromEntity(photoEntity);
+
+    // Use the radius the user asked for, or the same default radius as the client.
+    int blurRadius;
+    try {
+      blurRadius = Integer.parseInt(request.getParameter("blur-radius"));
+    } catch (NumberFormatException e) {
+      blurRadius = BlurRenderer.getDefaultBlurRadius(blurAreas);
+    }
+
+    // PNGs can have transparent pixels, JPEGs can't.
+    boolean isPng = contentType.equals("image/png");
+    BufferedImage blurredImage = BlurRenderer.render(image, blurAreas, blurRadius, isPng);
+
+    // Stream the encoded image as the response.
+    response.setContentType(contentType);
+    ImageIO.write(blurredImage, isPng ? "png" : "jpeg", response.getOutputStream());
+  }
+}
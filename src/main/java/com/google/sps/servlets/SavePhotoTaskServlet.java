@@ -0,0 +1,158 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.data.BlobMetadata;
+import com.google.sps.data.BlobReader;
+import com.google.sps.data.BlurAreaCodec;
+import com.google.sps.data.Histogram;
+import com.google.sps.data.Metrics;
+import com.google.sps.data.ThumbnailGenerator;
+import java.awt.Point;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that saves an uploaded photo and its thumbnails, as a task queue task, so
+ * "/get-blur-areas" can respond as soon as the blur areas are found. The photo's id is chosen
+ * before the task is added and its thumbnails get ids derived from it, so a task which is retried
+ * after a failure overwrites what it saved before instead of saving it twice.
+ */
+@WebServlet(SavePhotoTaskServlet.PATH)
+public class SavePhotoTaskServlet extends HttpServlet {
+
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  static final String PATH = "/tasks/save-photo";
+
+  private static final Logger logger = Logger.getLogger(SavePhotoTaskServlet.class.getName());
+
+  private static final LongAdder thumbnailErrors =
+      Metrics.counter(
+          "save_photo_thumbnail_errors_total",
+          "Saved photos whose thumbnails could not be created.");
+  private static final Histogram thumbnailsLatency =
+      Metrics.latency(
+          "save_photo_thumbnails_seconds",
+          "Time to decode a saved photo and create its thumbnails.");
+  private static final Histogram putLatency =
+      Metrics.latency("save_photo_put_seconds", "Time to put a saved photo in the database.");
+
+  /**
+   * Returns a task which saves the photo with id @param photoId for the user with id @param userId.
+   * The photo is stored in the blob described by @param blobInfo, has the areas in @param blurAreas
+   * to blur and was uploaded at @param dateCreated.
+   */
+  static TaskOptions createTask(
+      long photoId,
+      String userId,
+      BlobInfo blobInfo,
+      List<List<Point>> blurAreas,
+      Date dateCreated) {
+    return createTask(
+        photoId,
+        userId,
+        blobInfo.getBlobKey(),
+        blobInfo.getSize(),
+        blobInfo.getContentType(),
+        blurAreas,
+        dateCreated);
+  }
+
+  /**
+   * Returns a task which saves the photo like the other createTask, for a blob known by its @param
+   * blobKey, @param size and @param contentType instead of its BlobInfo.
+   */
+  static TaskOptions createTask(
+      long photoId,
+      String userId,
+      BlobKey blobKey,
+      long size,
+      String contentType,
+      List<List<Point>> blurAreas,
+      Date dateCreated) {
+    return TaskOptions.Builder.withUrl(PATH)
+        .method(TaskOptions.Method.POST)
+        .param("photo-id", Long.toString(photoId))
+        .param("user-id", userId)
+        .param("blob-key", blobKey.getKeyString())
+        .param("size", Long.toString(size))
+        .param("content-type", contentType)
+        .param("blur-areas", Base64.getEncoder().encodeToString(BlurAreaCodec.encode(blurAreas)))
+        .param("date-created", Long.toString(dateCreated.getTime()));
+  }
+
+  /**
+   * Method that handles the POST requests to "/tasks/save-photo" path, sent by the task queue with
+   * the parameters set by createTask. Any exception makes the task queue retry the task.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!TaskQueueRequests.checkFromTaskQueue(request, response)) {
+      return;
+    }
+
+    long photoId = Long.parseLong(request.getParameter("photo-id"));
+    String userId = request.getParameter("user-id");
+    BlobKey blobKey = new BlobKey(request.getParameter("blob-key"));
+    long size = Long.parseLong(request.getParameter("size"));
+    String contentType = request.getParameter("content-type");
+    List<List<Point>> blurAreas =
+        BlurAreaCodec.decode(Base64.getDecoder().decode(request.getParameter("blur-areas")));
+    Date dateCreated = new Date(Long.parseLong(request.getParameter("date-created")));
+
+    // Create the imageEntity.
+    Entity imageEntity = new Entity(KeyFactory.createKey("BlurImage", photoId));
+    imageEntity.setProperty("userId", userId);
+    imageEntity.setProperty("blobKey", blobKey);
+    BlurAreaCodec.writeToEntity(imageEntity, blurAreas);
+    imageEntity.setProperty("dateCreated", dateCreated);
+    // Store the blob's size and type, so listing photos doesn't have to load its BlobInfo.
+    BlobMetadata.setProperties(imageEntity, size, contentType);
+
+    // Save small blurred versions of the photo for the history page. The history page falls back
+    // to the original if they are missing, so a photo which can't be decoded is still saved.
+    byte[] imageBytes = BlobReader.readBlob(blobKey, size);
+    long thumbnailsStartNanos = System.nanoTime();
+    try {
+      ThumbnailGenerator.createThumbnails(imageBytes, blurAreas, userId, imageEntity);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not create thumbnails of photo " + photoId + ".", e);
+      thumbnailErrors.increment();
+    }
+    Metrics.recordSince(thumbnailsLatency, thumbnailsStartNanos);
+
+    // Save imageEntity in datastore.
+    long putStartNanos = System.nanoTime();
+    datastore.put(imageEntity);
+    Metrics.recordSince(putLatency, putStartNanos);
+  }
+}
@@ -26,6 +26,8 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/server-time")
 public class ServerTimeServlet extends HttpServlet {
 
+  private static final Gson gson = new Gson();
+
   /**
    * Method that handles the GET requests to "/server-time" path. Returns a new Date object, which
    * is initialized with the current time.
@@ -33,7 +35,6 @@ public class ServerTimeServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     // Convert the current date to JSON.
-    Gson gson = new Gson();
     String jsonResponse = gson.toJson(new Date());
 
     // Send the JSON back as the response.
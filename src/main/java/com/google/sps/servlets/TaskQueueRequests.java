@@ -0,0 +1,59 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Checks for the servlets which handle tasks of the task queue or cron jobs. */
+final class TaskQueueRequests {
+
+  private TaskQueueRequests() {}
+
+  /**
+   * Returns true if @param request was sent by the task queue. Else sends an error with @param
+   * response and returns false.
+   */
+  static boolean checkFromTaskQueue(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    // App Engine removes this header from requests coming from outside the application.
+    if (request.getHeader("X-AppEngine-QueueName") != null) {
+      return true;
+    }
+
+    response.setContentType("text/html;");
+    response.getWriter().println("This path can only be called by the task queue.");
+    response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+    return false;
+  }
+
+  /**
+   * Returns true if @param request was sent by cron. Else sends an error with @param response and
+   * returns false.
+   */
+  static boolean checkFromCron(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    // App Engine removes this header from requests coming from outside the application.
+    if ("true".equals(request.getHeader("X-Appengine-Cron"))) {
+      return true;
+    }
+
+    response.setContentType("text/html;");
+    response.getWriter().println("This path can only be called by cron.");
+    response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+    return false;
+  }
+}
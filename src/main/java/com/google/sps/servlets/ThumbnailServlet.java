@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+@WebServlet("/thumbnail")
+public class ThumbnailServlet extends HttpServlet {
+
+  private static final UserService userService = UserServiceFactory.getUserService();
+  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  /**
+   * Method that handles the GET requests to "/thumbnail" path. Parameter "key" specifies the key of
+   * the thumbnail requested, as returned by "/photos". Responds with the thumbnail's JPEG if it
+   * belongs to the current user.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String keyString = request.getParameter("key");
+
+    if (keyString == null) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Please provide the key parameter.");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    Key key;
+    try {
+      key = KeyFactory.stringToKey(keyString);
+    } catch (IllegalArgumentException e) {
+      response.setContentType("text/html;");
+      response.getWriter().println("Parameter key is invalid. Received:" + keyString);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    // Only the user who uploaded the photo can see its thumbnails. We only need the user's id here,
+    // so we don't load the whole user from the database.
+    String userId = userService.isUserLoggedIn() ? userService.getCurrentUser().getUserId() : null;
+
+    Entity thumbnailEntity = null;
+    if (key.getKind().equals("Thumbnail")) {
+      try {
+        thumbnailEntity = datastore.get(key);
+      } catch (EntityNotFoundException e) {
+        thumbnailEntity = null;
+      }
+    }
+
+    if (thumbnailEntity == null || !thumbnailEntity.getProperty("userId").equals(userId)) {
+      response.setContentType("text/html;");
+      response.getWriter().println("The current user has no thumbnail with key: " + keyString);
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    // A thumbnail never changes, but only its user may see it, so only the browser may cache it.
+    String etag = "\"" + keyString + "\"";
+    response.setHeader("Cache-Control", "private, max-age=31536000, immutable");
+    response.setHeader("ETag", etag);
+    if (PhotoServlet.matchesEtag(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] bytes = ((Blob) thumbnailEntity.getProperty("bytes")).getBytes();
+    response.setContentType("image/jpeg");
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+  }
+}
@@ -15,7 +15,9 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+import com.google.sps.data.LoggedUser;
+import com.google.sps.data.NotLoggedUser;
 import com.google.sps.data.User;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
@@ -27,25 +29,55 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/user")
 public class UserServlet extends HttpServlet {
 
+  // Gson instances are immutable and thread-safe, so all requests share this one.
+  private static final Gson gson = new Gson();
+
   /**
    * Method that handles the GET requests to "/user" path. Returns a JSON object describing the
    * current user.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    User user = User.getCurrentUser();
-
-    // Build a custom Gson object to include class' static fields in the JSON. We do this because
-    // we want USER_STORAGE_LIMIT on the frontend.
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    gsonBuilder.excludeFieldsWithModifiers(java.lang.reflect.Modifier.TRANSIENT);
-    Gson gson = gsonBuilder.create();
+    User user = User.getCurrentUser(request);
 
-    // Convert the user to JSON.
-    String json = gson.toJson(user);
+    // Convert the user to JSON. Only UserJson's fields are sent, so the fields of User and its
+    // subclasses, like their service handles, never reach the client.
+    String json = gson.toJson(new UserJson(user));
 
     // Send the JSON as the response.
     response.setContentType("application/json;");
     response.getWriter().println(json);
   }
+
+  /** What "/user" sends about a user. Gson skips the fields which are null. */
+  private static final class UserJson {
+    private final boolean loggedIn;
+    // Set for a logged in user.
+    private final String id;
+    private final Long usedSpace;
+    private final String logoutURL;
+
+    @SerializedName("USER_STORAGE_LIMIT")
+    private final Long storageLimit;
+    // Set for a user who is not logged in.
+    private final String loginURL;
+
+    private UserJson(User user) {
+      loggedIn = user.isLoggedIn();
+      if (loggedIn) {
+        LoggedUser loggedUser = (LoggedUser) user;
+        id = loggedUser.getId();
+        usedSpace = loggedUser.getUsedSpace();
+        logoutURL = loggedUser.getLogoutURL();
+        storageLimit = LoggedUser.USER_STORAGE_LIMIT;
+        loginURL = null;
+      } else {
+        id = null;
+        usedSpace = null;
+        logoutURL = null;
+        storageLimit = null;
+        loginURL = ((NotLoggedUser) user).getLoginURL();
+      }
+    }
+  }
 }
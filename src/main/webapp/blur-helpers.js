@@ -209,7 +209,8 @@ async function loadBlurredPhoto(photo) {
 
   // Convert rectangles returned by the request to Rect objects to be used
   // by our functions.
-  const responseRects = JSON.parse(photo.jsonBlurRectangles);
+  const responseRects = photo.packedBlurRectangles !== undefined ?
+      unpackBlurRectangles(photo.packedBlurRectangles) : photo.blurRectangles;
   const blurRects = [];
   for (const area of responseRects) {
     let rect;
@@ -233,6 +234,58 @@ async function loadBlurredPhoto(photo) {
   return getImageWithBlurredAreas(imageDetails, blurRadius);
 }
 
+/**
+ * Function that decodes rectangles packed by BlurAreaCodec on the server.
+ * The packed bytes are a version byte, then the number of areas and, for each
+ * area, its number of points and the zigzag encoded differences between each
+ * point and the previous one. All numbers are varints.
+ * @param {String} packed the packed bytes, base64 encoded.
+ * @return {Array<Array<Object>>} areas made of points with x and y.
+ */
+function unpackBlurRectangles(packed) {
+  const bytes = atob(packed);
+  let position = 0;
+
+  const readVarint = () => {
+    let value = 0;
+    let multiplier = 1;
+    let byte;
+    do {
+      if (position >= bytes.length) {
+        throw new Error('Packed rectangles end unexpectedly.');
+      }
+      byte = bytes.charCodeAt(position++);
+      value += (byte & 0x7f) * multiplier;
+      multiplier *= 128;
+    } while (byte & 0x80);
+    return value;
+  };
+  const readDifference = () => {
+    const value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  };
+
+  if (readVarint() !== 1) {
+    throw new Error('Unknown packed rectangles version.');
+  }
+
+  const areas = [];
+  const areaCount = readVarint();
+  for (let i = 0; i < areaCount; ++i) {
+    const area = [];
+    const pointCount = readVarint();
+    let x = 0;
+    let y = 0;
+    for (let j = 0; j < pointCount; ++j) {
+      x += readDifference();
+      y += readDifference();
+      area.push({x: x, y: y});
+    }
+    areas.push(area);
+  }
+  return areas;
+}
+
 /**
  * Function that preloads some of the photos in sessionStorage.
  * Assigns each photo a value and uses the Knapsack algorithm to decide which
@@ -240,9 +293,10 @@ async function loadBlurredPhoto(photo) {
  * is the biggest.
 */
 async function preloadPhotos() {
-  // Fetch photos information from the server.
-  const photosResponse = await fetch('/photos');
-  const photos = await photosResponse.json();
+  // Fetch photos information from the server. Only the first page is needed,
+  // because the newest photos have the biggest values.
+  const photosResponse = await fetch('/photos?max-photos=50&format=packed');
+  const photos = (await photosResponse.json()).photos;
 
   if (photos.length === 0) {
     return;
@@ -38,19 +38,45 @@ async function loadContent() {
 
   updateUsedSpace(currentUser);
 
-  // Display the photos.
-  const photosResponse = await fetch('/photos');
-  const photos = await photosResponse.json();
+  // Display the first page of photos.
+  const firstPage = await loadPage(null);
 
-  if (photos.length == 0) {
+  if (firstPage.photos.length == 0) {
     contentDiv.innerHTML =
         'You didn\'t upload any photo using this account yet.';
-    return;
   }
+}
+
+/**
+ * Function that displays a page of photos and shows a button which loads the
+ * next page, if there is one.
+ * @param {String} pageToken returned with the previous page, or null for the
+ *     first page.
+ * @return {Object} the page returned by '/photos' GET request.
+ */
+async function loadPage(pageToken) {
+  const loadMoreButton = document.getElementById('load-more');
+  loadMoreButton.hidden = true;
+
+  let url = '/photos?format=packed';
+  if (pageToken !== null) {
+    url += `&page-token=${encodeURIComponent(pageToken)}`;
+  }
+  const photosResponse = await fetch(url);
+  const page = await photosResponse.json();
 
-  for (const photo of photos) {
+  for (const photo of page.photos) {
     displayPhoto(photo);
   }
+
+  // The last page has no token for the next one.
+  const nextPageToken = page['next-page-token'];
+  if (nextPageToken !== undefined) {
+    loadMoreButton.onclick = () => loadPage(nextPageToken);
+    loadMoreButton.hidden = false;
+  }
+
+  return page;
 }
 
 /**
@@ -64,8 +90,14 @@ async function displayPhoto(photo) {
   const container = document.createElement('span');
   container.classList.add('photo-container');
 
-  // Load the photo.
-  const blurredImage = (await loadBlurredPhoto(photo)).object;
+  // Load the photo. Use its thumbnails, which are already blurred, if the
+  // server created them. Else load the original and blur it here.
+  let blurredImage;
+  if (photo.thumbnails && photo.thumbnails.length > 0) {
+    blurredImage = getThumbnailImage(photo.thumbnails);
+  } else {
+    blurredImage = (await loadBlurredPhoto(photo)).object;
+  }
   blurredImage.classList.add('photo');
 
   // Add the image to our container.
@@ -108,6 +140,22 @@ async function displayPhoto(photo) {
   contentDiv.appendChild(container);
 }
 
+/**
+ * Function that creates an image showing a photo's thumbnails. The browser
+ * picks the smallest thumbnail which is sharp enough for the screen.
+ * @param {Array<Thumbnail>} thumbnails ordered by width.
+ * @return {Image}
+ */
+function getThumbnailImage(thumbnails) {
+  const image = new Image();
+  image.srcset = thumbnails.map((thumbnail) =>
+    `/thumbnail?key=${thumbnail.key} ${thumbnail.width}w`).join(', ');
+  // Same as the max-width of .photo-container in history.css.
+  image.sizes = '28vw';
+  image.src = `/thumbnail?key=${thumbnails[0].key}`;
+  return image;
+}
+
 /**
  * Function to display the space used by the user.
  * @param {User} currentUser